@@ -10,12 +10,15 @@ import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner;
 import hudson.util.FormValidation;
 import io.jenkins.plugins.yc.exception.LoginFailed;
+import io.jenkins.plugins.yc.util.ExponentialBackoff;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import lombok.Getter;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.plaincredentials.impl.FileCredentialsImpl;
 import org.json.JSONObject;
 import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.verb.POST;
 import yandex.cloud.api.compute.v1.InstanceOuterClass;
 import yandex.cloud.sdk.auth.provider.CredentialProvider;
@@ -26,7 +29,9 @@ import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -36,14 +41,30 @@ public abstract class AbstractCloud extends Cloud {
 
     private static final Logger LOGGER = Logger.getLogger(AbstractCloud.class.getName());
     private final List<? extends YandexTemplate> templates;
+    /* One lock per template description, a slow call for one template doesn't hold up the others. */
+    private transient ConcurrentMap<String, ReentrantLock> provisioningLocks;
     @Getter
-    private transient ReentrantLock slaveCountingLock = new ReentrantLock();
+    private transient YCInstanceCache instanceCache;
+    private transient YCComputeClient computeClient;
+    /* Templates are immutable once the cloud is configured, the indexes live as long as the cloud object. */
+    private transient Map<String, YandexTemplate> templatesByDescription;
+    private transient List<YandexTemplate> unlabeledTemplates;
+    private transient ConcurrentMap<String, List<YandexTemplate>> templatesByLabel;
     @Getter
     private final String credentialsId;
     @Getter
     private final int authSleepMs;
 
-    private final int delayForRetry = 10000;
+    /* API calls per second allowed for every Compute API method, 0 for the default. */
+    private int apiRateLimit;
+
+    /* Resolved ssh keys by credentials id, cleared when the credentials are saved. */
+    private static final ConcurrentMap<String, YCPrivateKey> SSH_KEYS = new ConcurrentHashMap<>();
+
+    /* Label expressions whose matching templates are remembered per cloud. */
+    private static final int MAX_MEMOIZED_LABELS = Integer.getInteger(AbstractCloud.class.getName() + ".maxMemoizedLabels", 1000);
+
+    private static final ExponentialBackoff RUNNING_STATE_BACKOFF = new ExponentialBackoff(1000, 10000, 2);
 
     @CheckForNull
     private final String sshKeysCredentialsId;
@@ -62,17 +83,25 @@ public abstract class AbstractCloud extends Cloud {
 
     @Override
     public boolean canProvision(Cloud.CloudState state) {
-        return !getTemplates(state.getLabel()).isEmpty();
+        // templates whose create requests are failing are skipped until their circuit breaker lets a probe through
+        for (YandexTemplate t : getTemplates(state.getLabel())) {
+            if (t.getCircuitBreaker().isAvailable()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Obtains a agent whose matches the given template, and that also has requiredLabel (if requiredLabel is non-null)
+     * Obtains agents whose matches the given template, and that also has requiredLabel (if requiredLabel is non-null)
      * forceCreateNew specifies that the creation of a new agent is required. Otherwise, an existing matching agent may be re-used
+     *
+     * @return one future per agent, the instances are created in parallel
      */
-    public YCAbstractSlave getNewOrExistingAvailableSlave(YandexTemplate t, int number, boolean forceCreateNew) throws Exception {
+    public List<CompletableFuture<YCAbstractSlave>> getNewOrExistingAvailableSlave(YandexTemplate t, int number, boolean forceCreateNew) throws Exception {
+        ReentrantLock lock = getProvisioningLock(t);
         try {
-            slaveCountingLock.lock();
-            int possibleSlavesCount = 1;
+            lock.lock();
             try {
                 EnumSet<YandexTemplate.ProvisionOptions> provisionOptions;
                 if (forceCreateNew)
@@ -80,22 +109,23 @@ public abstract class AbstractCloud extends Cloud {
                 else
                     provisionOptions = EnumSet.of(YandexTemplate.ProvisionOptions.ALLOW_CREATE);
 
-                if (number > possibleSlavesCount) {
-                    LOGGER.log(Level.INFO, String.format("%d nodes were requested for the template %s, " +
-                            "but because of instance cap only %d can be provisioned", number, t, possibleSlavesCount));
-                    number = possibleSlavesCount;
-                }
-
                 return t.provision(number, provisionOptions);
             } catch (Exception e) {
                 LOGGER.log(Level.WARNING, t + ". Exception during provisioning", e);
                 throw e;
             }
         } finally {
-            slaveCountingLock.unlock();
+            lock.unlock();
         }
     }
 
+    /**
+     * @return lock held while the instances of the template are listed and requested
+     */
+    ReentrantLock getProvisioningLock(YandexTemplate t) {
+        return provisioningLocks.computeIfAbsent(t.getDescription(), k -> new ReentrantLock());
+    }
+
     public static abstract class DescriptorImpl extends Descriptor<Cloud> {
 
         @CheckForNull
@@ -195,24 +225,59 @@ public abstract class AbstractCloud extends Cloud {
     }
 
     protected Object readResolve() {
-        this.slaveCountingLock = new ReentrantLock();
+        this.provisioningLocks = new ConcurrentHashMap<>();
+        this.instanceCache = new YCInstanceCache(this);
+        if (StringUtils.isNotBlank(credentialsId)) {
+            YCTokenManager.prefetch(credentialsId);
+        }
+        Map<String, YandexTemplate> byDescription = new HashMap<>();
         for (YandexTemplate t : templates) {
             t.parent = this;
+            byDescription.putIfAbsent(t.getDescription(), t);
         }
+        this.templatesByDescription = Collections.unmodifiableMap(byDescription);
+        this.unlabeledTemplates = matchTemplates(null);
+        this.templatesByLabel = new ConcurrentHashMap<>();
         return this;
     }
 
+    public int getApiRateLimit() {
+        return apiRateLimit > 0 ? apiRateLimit : YCComputeClient.DEFAULT_RATE_LIMIT;
+    }
+
+    @DataBoundSetter
+    public void setApiRateLimit(int apiRateLimit) {
+        this.apiRateLimit = apiRateLimit;
+    }
+
+    public synchronized YCComputeClient getComputeClient() {
+        if (computeClient == null) {
+            computeClient = new YCComputeClient(credentialsId, getApiRateLimit());
+        }
+        return computeClient;
+    }
+
     @CheckForNull
     public YCPrivateKey resolvePrivateKey() {
         if (sshKeysCredentialsId != null) {
-            SSHUserPrivateKey privateKeyCredential = getSshCredential(sshKeysCredentialsId);
-            if (privateKeyCredential != null) {
-                return new YCPrivateKey(privateKeyCredential.getPrivateKeys().get(0), privateKeyCredential.getUsername());
-            }
+            return SSH_KEYS.computeIfAbsent(sshKeysCredentialsId, id -> {
+                SSHUserPrivateKey privateKeyCredential = getSshCredential(id);
+                if (privateKeyCredential != null) {
+                    return new YCPrivateKey(privateKeyCredential.getPrivateKeys().get(0), privateKeyCredential.getUsername());
+                }
+                return null;
+            });
         }
         return null;
     }
 
+    /**
+     * Forgets the resolved ssh keys, they are looked up again on the next use.
+     */
+    static void invalidateSshKeys() {
+        SSH_KEYS.clear();
+    }
+
     @CheckForNull
     private static SSHUserPrivateKey getSshCredential(String id) {
         SSHUserPrivateKey credential = CredentialsMatchers.firstOrNull(
@@ -235,12 +300,7 @@ public abstract class AbstractCloud extends Cloud {
 
     @javax.annotation.CheckForNull
     public YandexTemplate getTemplate(String template) {
-        for (YandexTemplate t : templates) {
-            if (t.getDescription().equals(template)) {
-                return t;
-            }
-        }
-        return null;
+        return templatesByDescription.get(template);
     }
 
     /**
@@ -250,6 +310,21 @@ public abstract class AbstractCloud extends Cloud {
      * @return template collections by label
      */
     public Collection<YandexTemplate> getTemplates(Label label) {
+        if (label == null) {
+            return unlabeledTemplates;
+        }
+        List<YandexTemplate> matching = templatesByLabel.get(label.getExpression());
+        if (matching == null) {
+            if (templatesByLabel.size() >= MAX_MEMOIZED_LABELS) {
+                // label expressions come from jobs and are not bounded, start over instead of growing
+                templatesByLabel.clear();
+            }
+            matching = templatesByLabel.computeIfAbsent(label.getExpression(), expression -> matchTemplates(label));
+        }
+        return matching;
+    }
+
+    private List<YandexTemplate> matchTemplates(Label label) {
         List<YandexTemplate> matchingTemplates = new ArrayList<>();
         for (YandexTemplate t : templates) {
             if (t.getMode() == Node.Mode.NORMAL) {
@@ -262,53 +337,108 @@ public abstract class AbstractCloud extends Cloud {
                 }
             }
         }
-        return matchingTemplates;
+        return Collections.unmodifiableList(matchingTemplates);
+    }
+
+    public NodeProvisioner.PlannedNode createPlannedNode(YandexTemplate t, CompletableFuture<YCAbstractSlave> slaveFuture) {
+        return new NodeProvisioner.PlannedNode(t.parent.getDisplayName(), awaitRunning(t, slaveFuture), t.getNumExecutors());
+    }
+
+    /**
+     * The create or start operation of the agent is already finished, but RUNNING is confirmed once more from the
+     * instance listing: the launcher reads the address of the instance from the same listing, and an adopted orphan
+     * or a preemptible instance may be stopped again by the time the operation is read. The first check runs at
+     * once, so the backoff only applies while the listing still lags behind the operation.
+     *
+     * @return future completed with the agent once its instance is RUNNING, or with null if it never gets there
+     */
+    CompletableFuture<Node> awaitRunning(YandexTemplate t, CompletableFuture<YCAbstractSlave> slaveFuture) {
+        return slaveFuture.thenCompose(slave -> {
+            CompletableFuture<Node> running = new CompletableFuture<>();
+            running.whenComplete((node, e) -> {
+                if (node == null) {
+                    // no node is added for the instance
+                    t.releaseReservation(slave.getNodeName());
+                }
+            });
+            new RunningStatePoller(t, slave, running).schedule(0);
+            return running;
+        });
     }
 
-    public NodeProvisioner.PlannedNode createPlannedNode(YandexTemplate t, YCAbstractSlave slave) {
-        return new NodeProvisioner.PlannedNode(t.parent.getDisplayName(),
-                Computer.threadPoolForRemoting.submit(new Callable<>() {
-                    private static final int DESCRIBE_LIMIT = 5;
-                    int retryCount = 0;
-
-                    public Node call() throws Exception {
-                        while (true) {
-                            String instanceId = slave.getInstanceId();
-                            InstanceOuterClass.Instance instance = t.getInstanceResponse(instanceId);
-                            if (instance == null) {
-                                LOGGER.log(Level.WARNING, "{0} Can't find instance with instance id `{1}` in cloud {2}. Terminate provisioning ",
-                                        new Object[]{t, instanceId, slave.getCloudName()});
-                                return null;
-                            }
-                            String state = instance.getStatus().name();
-                            if (state.equals("RUNNING")) {
-                                Computer c = slave.toComputer();
-                                if (slave.getStopOnTerminate() && (c != null)) {
-                                    c.connect(false);
-                                }
-
-                                long startTime = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
-                                LOGGER.log(Level.INFO, "{0} Node {1} moved to RUNNING state in {2} seconds and is ready to be connected by Jenkins",
-                                        new Object[]{t, slave.getNodeName(), startTime});
-                                return slave;
-                            }
-
-                            if (!state.equals("PROVISIONING")) {
-                                if (retryCount >= DESCRIBE_LIMIT) {
-                                    LOGGER.log(Level.WARNING, "Instance {0} did not move to running after 1 attempts, terminating provisioning",
-                                            new Object[]{instanceId/*, retryCount*/});
-                                    return null;
-                                }
-
-                                LOGGER.log(Level.INFO, "Attempt {0}: {1}. Node {2} is neither pending, neither running, it''s {3}. Will try again after " + delayForRetry + "s",
-                                        new Object[]{retryCount, t, slave.getNodeName(), state});
-                                retryCount++;
-                            }
-                            Thread.sleep(delayForRetry);
-                        }
+    /**
+     * Waits for the instance to move to RUNNING state without holding a thread between the checks.
+     */
+    private final class RunningStatePoller implements Runnable {
+        private static final int DESCRIBE_LIMIT = 5;
+        private final YandexTemplate t;
+        private final YCAbstractSlave slave;
+        private final CompletableFuture<Node> result;
+        private int retryCount = 0;
+        private int attempt = 0;
+
+        RunningStatePoller(YandexTemplate t, YCAbstractSlave slave, CompletableFuture<Node> result) {
+            this.t = t;
+            this.slave = slave;
+            this.result = result;
+        }
+
+        void schedule(long delay) {
+            Timer.get().schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            try {
+                String instanceId = slave.getInstanceId();
+                InstanceOuterClass.Instance instance = instanceCache.getInstance(instanceId);
+                if (instance == null) {
+                    if (retryCount >= DESCRIBE_LIMIT) {
+                        LOGGER.log(Level.WARNING, "{0} Can't find instance with instance id `{1}` in cloud {2}. Terminate provisioning ",
+                                new Object[]{t, instanceId, slave.getCloudName()});
+                        YCProvisioningMetrics.forget(slave.getNodeName());
+                        result.complete(null);
+                        return;
                     }
-                })
-                , t.getNumExecutors());
+                    retryCount++;
+                    schedule(RUNNING_STATE_BACKOFF.delay(retryCount));
+                    return;
+                }
+                String state = instance.getStatus().name();
+                if (state.equals("RUNNING")) {
+                    Computer c = slave.toComputer();
+                    if (slave.getStopOnTerminate() && (c != null)) {
+                        c.connect(false);
+                    }
+
+                    YCProvisioningMetrics.reached(slave.getNodeName(), YCProvisioningMetrics.Phase.RUNNING);
+                    long startTime = TimeUnit.MILLISECONDS.toSeconds(YCComputer.getUptime(instance, System.currentTimeMillis()));
+                    LOGGER.log(Level.INFO, "{0} Node {1} moved to RUNNING state in {2} seconds and is ready to be connected by Jenkins",
+                            new Object[]{t, slave.getNodeName(), startTime});
+                    result.complete(slave);
+                    return;
+                }
+
+                long delay = RUNNING_STATE_BACKOFF.delay(attempt++);
+                if (!state.equals("PROVISIONING")) {
+                    if (retryCount >= DESCRIBE_LIMIT) {
+                        LOGGER.log(Level.WARNING, "Instance {0} did not move to running after 1 attempts, terminating provisioning",
+                                new Object[]{instanceId/*, retryCount*/});
+                        YCProvisioningMetrics.forget(slave.getNodeName());
+                        result.complete(null);
+                        return;
+                    }
+
+                    LOGGER.log(Level.INFO, "Attempt {0}: {1}. Node {2} is neither pending, neither running, it''s {3}. Will try again after " + delay + "ms",
+                            new Object[]{retryCount, t, slave.getNodeName(), state});
+                    retryCount++;
+                }
+                schedule(delay);
+            } catch (Exception e) {
+                YCProvisioningMetrics.forget(slave.getNodeName());
+                result.completeExceptionally(e);
+            }
+        }
     }
 
     @SuppressWarnings("unused")
@@ -19,6 +19,7 @@ import yandex.cloud.api.compute.v1.InstanceOuterClass;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,6 +49,12 @@ public abstract class YCAbstractSlave extends Slave {
     /* The time at which we fetched the last instance data. */
     protected transient long lastFetchTime;
 
+    /* The plugin stopped the instance, so a STOPPING or STOPPED instance is not a preemption. */
+    private transient volatile boolean stopRequested;
+
+    /* The instance was created for this agent and not launched yet, so it shows its image as it is. */
+    private transient volatile boolean freshInstance;
+
     /** Terminate was scheduled. */
     protected transient ResettableCountDownLatch terminateScheduled = new ResettableCountDownLatch(1, false);
 
@@ -122,19 +129,22 @@ public abstract class YCAbstractSlave extends Slave {
     public abstract void terminate();
 
     void stop() {
-        try {
-            YandexTemplate template = getCloud().getTemplate(templateDescription);
-            if (template != null) {
-                template.stopInstance(instanceId);
+        stopRequested = true;
+        YandexCloud cloud = getCloud();
+        YandexTemplate template = cloud == null ? null : cloud.getTemplate(templateDescription);
+        CompletableFuture<?> stopped = template != null
+                ? template.stopInstance(instanceId)
+                : CompletableFuture.completedFuture(null);
+        stopped.whenComplete((response, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.WARNING, "Failed to stop YC instance: " + getInstanceId(), e);
+                return;
             }
             Computer computer = toComputer();
             if (computer != null) {
                 computer.disconnect(null);
             }
-        } catch (Exception e) {
-            LOGGER.log(Level.WARNING, "Failed to stop YC instance: " + getInstanceId(), e);
-        }
-
+        });
     }
 
     @Override
@@ -222,6 +232,22 @@ public abstract class YCAbstractSlave extends Slave {
      */
     public void onConnected() {
         isConnected = true;
+        stopRequested = false;
+    }
+
+    /**
+     * @return true if the instance was stopped by the plugin and not started again since
+     */
+    boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    boolean isFreshInstance() {
+        return freshInstance;
+    }
+
+    void setFreshInstance(boolean freshInstance) {
+        this.freshInstance = freshInstance;
     }
 
     protected boolean isAlive(boolean force) throws Exception {
@@ -252,11 +278,10 @@ public abstract class YCAbstractSlave extends Slave {
             return;
         }
 
-        InstanceOuterClass.Instance i;
-        YandexTemplate template = getCloud().getTemplate(templateDescription);
-        i = null;
-        if (template != null) {
-            i = template.getInstanceResponse(getInstanceId());
+        InstanceOuterClass.Instance i = null;
+        YandexCloud cloud = getCloud();
+        if (cloud != null) {
+            i = cloud.getInstanceCache().getInstance(getInstanceId(), force);
         }
 
 
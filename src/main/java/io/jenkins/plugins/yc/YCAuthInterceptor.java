@@ -0,0 +1,35 @@
+package io.jenkins.plugins.yc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+
+/**
+ * Attaches the IAM token of the cloud credentials to every call.
+ */
+public class YCAuthInterceptor implements ClientInterceptor {
+
+    private static final Metadata.Key<String> AUTHORIZATION = Metadata.Key.of("Authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final YCTokenManager tokenManager;
+
+    public YCAuthInterceptor(YCTokenManager tokenManager) {
+        this.tokenManager = tokenManager;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                               CallOptions callOptions, Channel next) {
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                headers.put(AUTHORIZATION, "Bearer " + tokenManager.get().getToken());
+                super.start(responseListener, headers);
+            }
+        };
+    }
+}
@@ -0,0 +1,30 @@
+package io.jenkins.plugins.yc;
+
+/**
+ * How the instances of a template are billed, used to choose when idle agents are scaled down.
+ */
+public enum YCBillingModel {
+
+    PER_SECOND("Per second with a one minute minimum", 60),
+    PER_HOUR("Per started hour", 3600);
+
+    private final String displayName;
+
+    private final long minimumChargeSeconds;
+
+    YCBillingModel(String displayName, long minimumChargeSeconds) {
+        this.displayName = displayName;
+        this.minimumChargeSeconds = minimumChargeSeconds;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return time an instance is paid for as soon as it is created
+     */
+    public long getMinimumChargeSeconds() {
+        return minimumChargeSeconds;
+    }
+}
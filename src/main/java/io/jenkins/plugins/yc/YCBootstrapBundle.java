@@ -0,0 +1,292 @@
+package io.jenkins.plugins.yc;
+
+import com.trilead.ssh2.ChannelCondition;
+import com.trilead.ssh2.Connection;
+import com.trilead.ssh2.Session;
+import com.trilead.ssh2.StreamGobbler;
+import hudson.Util;
+import io.jenkins.plugins.yc.util.TarStreamWriter;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Everything the agent needs before remoting is started, sent to the instance in a single SSH session.
+ * <p>
+ * The files are streamed as a tar archive to {@code tar -x} in the temporary directory, and the extracted
+ * bootstrap script runs the preparation steps. Every step prints a {@code yc-step <name> <exit code>} line,
+ * the script stops at the first failed step.
+ * <p>
+ * Files are content addressed: the same session first lists the SHA-256 digests of the files already present in
+ * the temporary directory, and only files whose digest differs are sent.
+ */
+public class YCBootstrapBundle {
+
+    private static final Logger LOGGER = Logger.getLogger(YCBootstrapBundle.class.getName());
+
+    private static final long TIMEOUT = Long.getLong(YCBootstrapBundle.class.getName() + ".timeoutMinutes", 30);
+
+    static final String STEP_MARKER = "yc-step ";
+
+    /* Facts about the instance are reported as "yc-info <key> <value>" lines. */
+    static final String INFO_MARKER = "yc-info ";
+
+    static final String SCRIPT_NAME = "yc-bootstrap.sh";
+
+    /* Ends the digests of the files already present. */
+    static final String DIGESTS_END = "yc-digests-end";
+
+    private final String tmpDir;
+
+    private static volatile Artifact remotingJar;
+
+    private final Map<String, Artifact> files = new LinkedHashMap<>();
+
+    private final Map<String, Integer> modes = new LinkedHashMap<>();
+
+    private final Set<String> skipped = new LinkedHashSet<>();
+
+    private final StringBuilder script = new StringBuilder("#!/bin/sh\n")
+            .append("step() { name=$1; shift; \"$@\"; rc=$?; echo \"" + STEP_MARKER + "$name $rc\"; return $rc; }\n");
+
+    private final Map<String, Integer> results = new LinkedHashMap<>();
+
+    private final Map<String, String> info = new LinkedHashMap<>();
+
+    public YCBootstrapBundle(String tmpDir) {
+        this.tmpDir = tmpDir;
+    }
+
+    /**
+     * Adds a file to be extracted into the temporary directory.
+     */
+    public YCBootstrapBundle withFile(String name, byte[] content, int mode) {
+        return withFile(name, Artifact.of(content), mode);
+    }
+
+    /**
+     * Adds a file to be extracted into the temporary directory, unless the directory already has the same content.
+     */
+    public YCBootstrapBundle withFile(String name, Artifact artifact, int mode) {
+        files.put(name, artifact);
+        modes.put(name, mode);
+        return this;
+    }
+
+    /**
+     * @return remoting.jar of this controller, read once and kept with its digest
+     */
+    public static Artifact getRemotingJar() throws IOException {
+        Artifact jar = remotingJar;
+        if (jar == null) {
+            synchronized (YCBootstrapBundle.class) {
+                jar = remotingJar;
+                if (jar == null) {
+                    jar = Artifact.of(Jenkins.get().getJnlpJars("remoting.jar").readFully());
+                    remotingJar = jar;
+                }
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * Adds a shell fragment to the bootstrap script, it may call {@code step <name> <command...>}.
+     */
+    public YCBootstrapBundle withScript(String fragment) {
+        script.append(fragment).append('\n');
+        return this;
+    }
+
+    public String getTmpDir() {
+        return tmpDir;
+    }
+
+    /**
+     * @return names of the files which were up to date and not sent
+     */
+    public Set<String> getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return facts reported by the bootstrap script
+     */
+    public Map<String, String> getInfo() {
+        return info;
+    }
+
+    /**
+     * @return exit codes of the executed steps, in execution order
+     */
+    public Map<String, Integer> getResults() {
+        return results;
+    }
+
+    /**
+     * Sends the bundle and runs the bootstrap script.
+     *
+     * @return exit code of the script, 0 if every step succeeded
+     */
+    public int run(Connection conn, PrintStream logger) throws IOException, InterruptedException {
+        Session sess = conn.openSession();
+        try {
+            sess.execCommand(command());
+            StreamGobbler stderr = new StreamGobbler(sess.getStderr());
+            exchange(sess.getStdout(), sess.getStdin(), logger);
+            IOUtils.copy(stderr, logger);
+            sess.waitForCondition(ChannelCondition.EXIT_STATUS, TimeUnit.MINUTES.toMillis(TIMEOUT));
+            Integer exitStatus = sess.getExitStatus();
+            return exitStatus == null ? -1 : exitStatus;
+        } finally {
+            sess.close();
+        }
+    }
+
+    /**
+     * Reads the digests listed by the remote command, sends the archive of the changed files and reads the output
+     * of the bootstrap script until the remote command exits.
+     */
+    void exchange(InputStream remoteStdout, OutputStream remoteStdin, PrintStream logger) throws IOException {
+        try (BufferedReader stdout = new BufferedReader(new InputStreamReader(remoteStdout, StandardCharsets.UTF_8))) {
+            // the digests of the files already present come first, then only the changed files are sent
+            boolean listed = readDigests(stdout, logger);
+            try (OutputStream stdin = remoteStdin) {
+                if (listed) {
+                    writeArchive(stdin);
+                }
+            }
+            String line;
+            while ((line = stdout.readLine()) != null) {
+                if (line.startsWith(STEP_MARKER)) {
+                    parseStep(line.substring(STEP_MARKER.length()));
+                } else if (line.startsWith(INFO_MARKER)) {
+                    String[] parts = line.substring(INFO_MARKER.length()).split(" ", 2);
+                    info.put(parts[0], parts.length > 1 ? parts[1].trim() : "");
+                } else {
+                    logger.println(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the files which are not up to date and the bootstrap script as a tar archive.
+     */
+    void writeArchive(OutputStream out) throws IOException {
+        try (TarStreamWriter tar = new TarStreamWriter(out)) {
+            for (Map.Entry<String, Artifact> file : files.entrySet()) {
+                if (!skipped.contains(file.getKey())) {
+                    tar.addFile(file.getKey(), file.getValue().content, modes.get(file.getKey()));
+                }
+            }
+            tar.addFile(SCRIPT_NAME, script.toString().getBytes(StandardCharsets.UTF_8), 0700);
+        }
+    }
+
+    /**
+     * The remote command first lists the digests of the bundle files already present in the temporary directory,
+     * then extracts the archive read from stdin and runs the bootstrap script.
+     */
+    String command() {
+        String dir = quote(tmpDir);
+        StringBuilder command = new StringBuilder("mkdir -p ").append(dir).append(" && (");
+        if (!files.isEmpty()) {
+            command.append("cd ").append(dir).append(" && sha256sum --");
+            for (String name : files.keySet()) {
+                command.append(' ').append(quote(name));
+            }
+            // missing files are not listed
+            command.append(" </dev/null 2>/dev/null; ");
+        }
+        return command.append("echo ").append(DIGESTS_END).append(") && tar -xf - -C ").append(dir)
+                .append(" && sh ").append(dir).append('/').append(SCRIPT_NAME).toString();
+    }
+
+    /**
+     * Reads the digests listed by the remote command and marks the files which are up to date as skipped.
+     *
+     * @return false if the command failed before the listing was complete
+     */
+    boolean readDigests(BufferedReader stdout, PrintStream logger) throws IOException {
+        String line;
+        while ((line = stdout.readLine()) != null) {
+            if (line.equals(DIGESTS_END)) {
+                return true;
+            }
+            // <digest>  <name>, binary mode marks the name with '*'
+            String[] parts = line.split("\\s+\\*?", 2);
+            Artifact artifact = parts.length == 2 ? files.get(parts[1]) : null;
+            if (artifact == null) {
+                logger.println(line);
+            } else if (artifact.getSha256().equals(parts[0])) {
+                skipped.add(parts[1]);
+            }
+        }
+        return false;
+    }
+
+    private void parseStep(String step) {
+        int space = step.lastIndexOf(' ');
+        if (space < 0) {
+            return;
+        }
+        try {
+            int rc = Integer.parseInt(step.substring(space + 1).trim());
+            results.put(step.substring(0, space), rc);
+            LOGGER.log(rc == 0 ? Level.FINE : Level.WARNING, "Bootstrap step {0} finished with exit code {1}",
+                    new Object[]{step.substring(0, space), rc});
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.FINE, "Unexpected step line: " + step);
+        }
+    }
+
+    static String quote(String value) {
+        return "'" + value.replace("'", "'\"'\"'") + "'";
+    }
+
+    /**
+     * File content with its SHA-256 digest.
+     */
+    public static final class Artifact {
+        private final byte[] content;
+        private final String sha256;
+
+        private Artifact(byte[] content, String sha256) {
+            this.content = content;
+            this.sha256 = sha256;
+        }
+
+        public static Artifact of(byte[] content) {
+            try {
+                return new Artifact(content, Util.toHexString(MessageDigest.getInstance("SHA-256").digest(content)));
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e); // SHA-256 is required by the JVM spec
+            }
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public int getSize() {
+            return content.length;
+        }
+    }
+}
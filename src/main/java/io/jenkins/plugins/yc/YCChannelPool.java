@@ -0,0 +1,105 @@
+package io.jenkins.plugins.yc;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import jenkins.model.Jenkins;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * gRPC channels to the Yandex Cloud API, one per endpoint for the whole controller.
+ * <p>
+ * Channels are shared by every cloud and template, the authentication is attached per call, so the number of
+ * TLS connections doesn't depend on the number of clouds, templates, agents or token refreshes.
+ */
+public final class YCChannelPool {
+
+    private static final Logger LOGGER = Logger.getLogger(YCChannelPool.class.getName());
+
+    public static final String COMPUTE_ENDPOINT = "compute.api.cloud.yandex.net:443";
+
+    public static final String OPERATION_ENDPOINT = "operation.api.cloud.yandex.net:443";
+
+    private static final long KEEP_ALIVE_TIME = Long.getLong(YCChannelPool.class.getName() + ".keepAliveSeconds", 60);
+
+    private static final long KEEP_ALIVE_TIMEOUT = Long.getLong(YCChannelPool.class.getName() + ".keepAliveTimeoutSeconds", 20);
+
+    private static final long IDLE_TIMEOUT = Long.getLong(YCChannelPool.class.getName() + ".idleTimeoutMinutes", 5);
+
+    private static final ConcurrentMap<String, ManagedChannel> CHANNELS = new ConcurrentHashMap<>();
+
+    private YCChannelPool() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Gets shared channel to the endpoint, creating it on first use.
+     *
+     * @param endpoint - host:port of the API endpoint
+     * @return channel
+     */
+    public static ManagedChannel get(String endpoint) {
+        return CHANNELS.compute(endpoint, (key, channel) ->
+                channel == null || channel.isShutdown() ? create(key) : channel);
+    }
+
+    private static ManagedChannel create(String endpoint) {
+        LOGGER.log(Level.FINE, "Creating channel to {0}", endpoint);
+        return ManagedChannelBuilder.forTarget(endpoint)
+                .keepAliveTime(KEEP_ALIVE_TIME, TimeUnit.SECONDS)
+                .keepAliveTimeout(KEEP_ALIVE_TIMEOUT, TimeUnit.SECONDS)
+                .keepAliveWithoutCalls(false)
+                .idleTimeout(IDLE_TIMEOUT, TimeUnit.MINUTES)
+                .userAgent("jenkins-yandex-cloud-workers")
+                .build();
+    }
+
+    /**
+     * Shuts down all channels. They are recreated on the next call.
+     */
+    public static void shutdown() {
+        for (Map.Entry<String, ManagedChannel> entry : CHANNELS.entrySet()) {
+            if (CHANNELS.remove(entry.getKey(), entry.getValue())) {
+                LOGGER.log(Level.FINE, "Shutting down channel to {0}", entry.getKey());
+                entry.getValue().shutdown();
+            }
+        }
+    }
+
+    @Terminator
+    public static void shutdownOnTermination() throws InterruptedException {
+        for (ManagedChannel channel : CHANNELS.values()) {
+            channel.shutdown();
+        }
+        for (ManagedChannel channel : CHANNELS.values()) {
+            if (!channel.awaitTermination(10, TimeUnit.SECONDS)) {
+                channel.shutdownNow();
+            }
+        }
+        CHANNELS.clear();
+    }
+
+    /**
+     * Releases the channels when the last Yandex cloud is removed from the configuration.
+     */
+    @Extension
+    public static class ConfigurationListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Jenkins && ((Jenkins) o).clouds.getAll(YandexCloud.class).isEmpty()) {
+                shutdown();
+            }
+        }
+    }
+}
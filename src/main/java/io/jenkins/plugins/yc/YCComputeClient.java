@@ -0,0 +1,285 @@
+package io.jenkins.plugins.yc;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.stub.MetadataUtils;
+import io.jenkins.plugins.yc.util.DecorrelatedJitter;
+import io.jenkins.plugins.yc.util.TokenBucket;
+import jenkins.util.Timer;
+import yandex.cloud.api.compute.v1.InstanceOuterClass;
+import yandex.cloud.api.compute.v1.InstanceServiceGrpc;
+import yandex.cloud.api.compute.v1.InstanceServiceOuterClass;
+import yandex.cloud.api.operation.OperationOuterClass;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compute API stubs of one cloud, bound to the shared channels and the shared token of the cloud credentials.
+ * <p>
+ * Lifecycle calls are asynchronous: they return as soon as the request is sent, and the returned future is
+ * completed by the gRPC transport, so no thread waits for the API response.
+ * <p>
+ * Calls of every API method are limited by a token bucket of this client, so a burst of provisioning stays within
+ * the quotas of the folder. Calls over the rate are delayed, not rejected. Calls failed with RESOURCE_EXHAUSTED or
+ * UNAVAILABLE are retried with decorrelated jitter; mutating calls carry an idempotency key which is kept across
+ * the retries, so a retried request which was applied the first time is not applied again.
+ */
+public class YCComputeClient {
+
+    private static final Logger LOGGER = Logger.getLogger(YCComputeClient.class.getName());
+
+    private static final long REQUEST_TIMEOUT = Long.getLong(YCComputeClient.class.getName() + ".requestTimeoutSeconds", 60);
+
+    static final int MAX_ATTEMPTS = Integer.getInteger(YCComputeClient.class.getName() + ".maxAttempts", 5);
+
+    private static final DecorrelatedJitter RETRY_JITTER = new DecorrelatedJitter(
+            Long.getLong(YCComputeClient.class.getName() + ".retryBaseDelayMs", 200),
+            Long.getLong(YCComputeClient.class.getName() + ".retryMaxDelayMs", 10000));
+
+    private static final Metadata.Key<String> IDEMPOTENCY_KEY = Metadata.Key.of("Idempotency-Key", Metadata.ASCII_STRING_MARSHALLER);
+
+    public static final int DEFAULT_RATE_LIMIT = 10;
+
+    private final InstanceServiceGrpc.InstanceServiceBlockingStub instanceService;
+
+    private final InstanceServiceGrpc.InstanceServiceFutureStub instanceServiceFuture;
+
+    private final YCOperationTracker operationTracker;
+
+    private final YCMetricsInterceptor metrics = new YCMetricsInterceptor();
+
+    private final int rateLimit;
+
+    private final DecorrelatedJitter retryJitter;
+
+    /* Rate limiters by API method. */
+    private final ConcurrentMap<String, TokenBucket> limiters = new ConcurrentHashMap<>();
+
+    public YCComputeClient(String credentialsId) {
+        this(credentialsId, DEFAULT_RATE_LIMIT);
+    }
+
+    /**
+     * @param credentialsId - cloud credentials
+     * @param rateLimit - calls per second allowed for every API method
+     */
+    public YCComputeClient(String credentialsId, int rateLimit) {
+        this(YCChannelPool.get(YCChannelPool.COMPUTE_ENDPOINT), YCChannelPool.get(YCChannelPool.OPERATION_ENDPOINT),
+                new YCAuthInterceptor(YCTokenManager.forCredentials(credentialsId)), rateLimit, RETRY_JITTER);
+    }
+
+    YCComputeClient(Channel computeChannel, Channel operationChannel, ClientInterceptor auth, int rateLimit,
+                    DecorrelatedJitter retryJitter) {
+        // the last interceptor is called first
+        Channel compute = ClientInterceptors.intercept(computeChannel, auth, metrics);
+        this.instanceService = InstanceServiceGrpc.newBlockingStub(compute);
+        this.instanceServiceFuture = InstanceServiceGrpc.newFutureStub(compute);
+        this.operationTracker = new YCOperationTracker(ClientInterceptors.intercept(operationChannel, auth, metrics));
+        this.rateLimit = rateLimit > 0 ? rateLimit : DEFAULT_RATE_LIMIT;
+        this.retryJitter = retryJitter;
+    }
+
+    /**
+     * @return call statistics of the compute and operation APIs of this client
+     */
+    public YCMetricsInterceptor getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stub for synchronous calls, neither rate limited nor retried.
+     */
+    public InstanceServiceGrpc.InstanceServiceBlockingStub getInstanceService() {
+        return instanceService.withDeadlineAfter(REQUEST_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    private InstanceServiceGrpc.InstanceServiceFutureStub instanceServiceFuture(int attempt) {
+        return instanceServiceFuture.withDeadlineAfter(REQUEST_TIMEOUT, TimeUnit.SECONDS)
+                .withOption(YCMetricsInterceptor.ATTEMPT, attempt);
+    }
+
+    /* The key is generated once per request and sent with every attempt. */
+    private InstanceServiceGrpc.InstanceServiceFutureStub idempotent(InstanceServiceGrpc.InstanceServiceFutureStub stub, String key) {
+        Metadata headers = new Metadata();
+        headers.put(IDEMPOTENCY_KEY, key);
+        return stub.withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    public CompletableFuture<OperationOuterClass.Operation> create(InstanceServiceOuterClass.CreateInstanceRequest request) {
+        String key = UUID.randomUUID().toString();
+        return call("Create", attempt -> idempotent(instanceServiceFuture(attempt), key).create(request));
+    }
+
+    public CompletableFuture<OperationOuterClass.Operation> start(String instanceId) {
+        String key = UUID.randomUUID().toString();
+        return call("Start", attempt -> idempotent(instanceServiceFuture(attempt), key)
+                .start(InstanceServiceOuterClass.StartInstanceRequest.newBuilder()
+                        .setInstanceId(instanceId)
+                        .build()));
+    }
+
+    public CompletableFuture<OperationOuterClass.Operation> stop(String instanceId) {
+        String key = UUID.randomUUID().toString();
+        return call("Stop", attempt -> idempotent(instanceServiceFuture(attempt), key)
+                .stop(InstanceServiceOuterClass.StopInstanceRequest.newBuilder()
+                        .setInstanceId(instanceId)
+                        .build()));
+    }
+
+    public CompletableFuture<OperationOuterClass.Operation> delete(String instanceId) {
+        String key = UUID.randomUUID().toString();
+        return call("Delete", attempt -> idempotent(instanceServiceFuture(attempt), key)
+                .delete(InstanceServiceOuterClass.DeleteInstanceRequest.newBuilder()
+                        .setInstanceId(instanceId)
+                        .build()));
+    }
+
+    public CompletableFuture<InstanceOuterClass.Instance> get(String instanceId) {
+        return call("Get", attempt -> instanceServiceFuture(attempt).get(InstanceServiceOuterClass.GetInstanceRequest.newBuilder()
+                .setInstanceId(instanceId)
+                .build()));
+    }
+
+    public CompletableFuture<InstanceServiceOuterClass.ListInstancesResponse> list(InstanceServiceOuterClass.ListInstancesRequest request) {
+        return call("List", attempt -> instanceServiceFuture(attempt).list(request));
+    }
+
+    /**
+     * @param operation - operation returned by create/start/stop/delete
+     * @return future completed when the operation is finished
+     */
+    public CompletableFuture<OperationOuterClass.Operation> awaitOperation(OperationOuterClass.Operation operation) {
+        return operationTracker.await(operation);
+    }
+
+    /**
+     * Waits for a call of this client.
+     *
+     * @return result of the call
+     * @throws Exception - failure of the call
+     */
+    public static <T> T await(CompletableFuture<T> call) throws Exception {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param e - failure of a call
+     * @return true if the call may succeed when it is sent again later
+     */
+    public static boolean isRetryable(Throwable e) {
+        Status.Code code = Status.fromThrowable(e).getCode();
+        return code == Status.Code.RESOURCE_EXHAUSTED || code == Status.Code.UNAVAILABLE;
+    }
+
+    private <T> CompletableFuture<T> call(String method, IntFunction<ListenableFuture<T>> call) {
+        TokenBucket limiter = limiters.computeIfAbsent(method, m -> new TokenBucket(rateLimit, rateLimit));
+        RetryingCall<T> retryingCall = new RetryingCall<>(method, limiter, retryJitter, call);
+        retryingCall.schedule(0);
+        return retryingCall.result;
+    }
+
+    /**
+     * Sends a call when the rate limiter allows it, and again after a retryable failure.
+     */
+    private static final class RetryingCall<T> {
+        private final String method;
+        private final TokenBucket limiter;
+        private final DecorrelatedJitter jitter;
+        private final IntFunction<ListenableFuture<T>> call;
+        private final CompletableFuture<T> result = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                CompletableFuture<T> sent = current;
+                if (sent != null) {
+                    sent.cancel(mayInterruptIfRunning);
+                }
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        private volatile CompletableFuture<T> current;
+        private int attempt;
+        private long retryDelay;
+
+        RetryingCall(String method, TokenBucket limiter, DecorrelatedJitter jitter, IntFunction<ListenableFuture<T>> call) {
+            this.method = method;
+            this.limiter = limiter;
+            this.jitter = jitter;
+            this.call = call;
+        }
+
+        void schedule(long delay) {
+            long wait = delay + limiter.reserve();
+            if (wait > 0) {
+                Timer.get().schedule(this::send, wait, TimeUnit.MILLISECONDS);
+            } else {
+                send();
+            }
+        }
+
+        private void send() {
+            if (result.isDone()) {
+                return;
+            }
+            CompletableFuture<T> sent;
+            try {
+                sent = toCompletableFuture(call.apply(attempt));
+            } catch (RuntimeException e) {
+                // the stub may fail before the call is sent, e.g. when no token can be obtained
+                sent = CompletableFuture.failedFuture(e);
+            }
+            current = sent;
+            sent.whenComplete((response, e) -> {
+                if (e == null) {
+                    result.complete(response);
+                } else if (isRetryable(e) && attempt + 1 < MAX_ATTEMPTS && !result.isDone()) {
+                    attempt++;
+                    retryDelay = jitter.next(retryDelay);
+                    LOGGER.log(Level.FINE, "{0} failed with {1}, retry {2} in {3}ms",
+                            new Object[]{method, Status.fromThrowable(e).getCode(), attempt, retryDelay});
+                    schedule(retryDelay);
+                } else {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+    }
+
+    static <T> CompletableFuture<T> toCompletableFuture(ListenableFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                future.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        future.addListener(() -> {
+            try {
+                result.complete(future.get());
+            } catch (ExecutionException e) {
+                result.completeExceptionally(e.getCause());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }, Runnable::run);
+        return result;
+    }
+}
@@ -2,12 +2,15 @@ package io.jenkins.plugins.yc;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.slaves.SlaveComputer;
-import io.jenkins.plugins.yc.util.TimeUtils;
+import io.jenkins.plugins.yc.exception.YandexClientException;
 import org.kohsuke.stapler.HttpRedirect;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 import yandex.cloud.api.compute.v1.InstanceOuterClass;
 
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 public class YCComputer extends SlaveComputer {
 
     /**
@@ -15,6 +18,11 @@ public class YCComputer extends SlaveComputer {
      */
     private volatile InstanceOuterClass.Instance ycInstanceDescription;
 
+    /* Set by the idle sweeper while the agent is idle. */
+    private volatile YCScaleDownPlan scaleDownPlan;
+
+    private volatile ScheduledFuture<?> scaleDownTask;
+
     public YCComputer(YCAbstractSlave slave) {
         super(slave);
     }
@@ -46,22 +54,26 @@ public class YCComputer extends SlaveComputer {
 
 
     public InstanceOuterClass.Instance describeInstance() throws Exception {
-        if (ycInstanceDescription == null) {
-            YandexTemplate template = getSlaveTemplate();
-            if (template != null) {
-                ycInstanceDescription = template.getInstanceResponse(getInstanceId());
+        AbstractCloud cloud = getCloud();
+        if (cloud != null) {
+            InstanceOuterClass.Instance instance = cloud.getInstanceCache().getInstance(getInstanceId());
+            if (instance != null) {
+                ycInstanceDescription = instance;
             }
         }
         return ycInstanceDescription;
     }
 
     public String getStatus() throws Exception {
-        YandexTemplate template = getSlaveTemplate();
-        if (template != null) {
-            ycInstanceDescription = template.getInstanceResponse(getInstanceId());
+        AbstractCloud cloud = getCloud();
+        if (cloud != null) {
+            ycInstanceDescription = cloud.getInstanceCache().getInstance(getInstanceId());
+            if (ycInstanceDescription == null) {
+                throw new YandexClientException("Can't find instance " + getInstanceId());
+            }
             return ycInstanceDescription.getStatus().name();
         }
-        return "Can't find slave template";
+        return "Can't find slave cloud";
     }
 
     /**
@@ -86,10 +98,37 @@ public class YCComputer extends SlaveComputer {
         YCAbstractSlave node = getNode();
         if (node != null) {
             node.onConnected();
+            YCProvisioningMetrics.reached(getName(), YCProvisioningMetrics.Phase.ONLINE);
+            YCIdleSweeper.recordProvisionTime(this);
         }
     }
 
+    /**
+     * @return when and why the agent is scaled down, null if it is not idle
+     */
+    @CheckForNull
+    public YCScaleDownPlan getScaleDownPlan() {
+        return scaleDownPlan;
+    }
+
+    void setScaleDownPlan(@CheckForNull YCScaleDownPlan scaleDownPlan) {
+        this.scaleDownPlan = scaleDownPlan;
+    }
+
+    @CheckForNull
+    ScheduledFuture<?> getScaleDownTask() {
+        return scaleDownTask;
+    }
+
+    void setScaleDownTask(@CheckForNull ScheduledFuture<?> scaleDownTask) {
+        this.scaleDownTask = scaleDownTask;
+    }
+
     public long getUptime() throws Exception {
-        return System.currentTimeMillis() - TimeUtils.dateStrToLong(String.valueOf(describeInstance().getCreatedAt()));
+        return getUptime(describeInstance(), System.currentTimeMillis());
+    }
+
+    static long getUptime(InstanceOuterClass.Instance instance, long now) {
+        return now - TimeUnit.SECONDS.toMillis(instance.getCreatedAt().getSeconds());
     }
 }
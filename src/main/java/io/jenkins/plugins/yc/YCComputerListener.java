@@ -1,17 +1,58 @@
 package io.jenkins.plugins.yc;
 
 import hudson.Extension;
-import hudson.model.TaskListener;
 import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.TaskListener;
 import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import jenkins.util.Timer;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 @Extension
 public class YCComputerListener extends ComputerListener {
 
+    private static final Logger LOGGER = Logger.getLogger(YCComputerListener.class.getName());
+
     @Override
     public void onOnline(Computer c, TaskListener listener) {
         if (c instanceof YCComputer) {
             ((YCComputer) c).onConnected();
         }
     }
+
+    /**
+     * A preemptible agent which drops its connection while running builds is checked for preemption right away,
+     * before the builds fail on the closed channel.
+     */
+    @Override
+    public void onOffline(Computer c, OfflineCause cause) {
+        if (!(c instanceof YCComputer)) {
+            return;
+        }
+        YCComputer computer = (YCComputer) c;
+        YandexTemplate t = computer.getSlaveTemplate();
+        if (t == null || !t.isPreemptible()) {
+            return;
+        }
+        List<Executor> executors = YCPreemption.runningExecutors(computer);
+        if (executors.isEmpty()) {
+            return;
+        }
+        Timer.get().submit(() -> {
+            try {
+                AbstractCloud cloud = computer.getCloud();
+                // the builds were running when the agent went offline
+                if (cloud != null && YCPreemption.isStopped(
+                        cloud.getInstanceCache().getInstance(computer.getInstanceId(), true))) {
+                    YCPreemption.handle(computer, executors);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to check preemption of " + computer.getName(), e);
+            }
+        });
+    }
 }
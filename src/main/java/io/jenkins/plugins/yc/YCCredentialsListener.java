@@ -0,0 +1,22 @@
+package io.jenkins.plugins.yc;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+
+/**
+ * Reloads the state derived from credentials when the global credentials store is saved.
+ */
+@Extension
+public class YCCredentialsListener extends SaveableListener {
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        if (o instanceof SystemCredentialsProvider) {
+            YCTokenManager.reloadAll();
+            AbstractCloud.invalidateSshKeys();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package io.jenkins.plugins.yc;
+
+import com.codahale.metrics.MetricRegistry;
+import hudson.Extension;
+import jenkins.metrics.api.Metrics;
+
+import java.util.Locale;
+
+/**
+ * Mirrors the provisioning latencies into histograms of the Metrics plugin, named
+ * {@code yandex-cloud.provisioning.<cloud>.<template>.<phase>} in milliseconds.
+ * <p>
+ * Loaded only when the optional Metrics plugin is installed.
+ */
+@Extension(optional = true)
+public class YCDropwizardMetrics implements YCProvisioningMetrics.Listener {
+
+    /* Longer cloud names and template descriptions are shortened and keep a hash of the full value. */
+    private static final int MAX_COMPONENT_LENGTH = 64;
+
+    @Override
+    public void recorded(String cloudName, String templateDescription, YCProvisioningMetrics.Phase phase, long latencyMs) {
+        MetricRegistry registry = Metrics.metricRegistry();
+        registry.histogram(MetricRegistry.name("yandex-cloud", "provisioning", component(cloudName),
+                component(templateDescription), phase.name().toLowerCase(Locale.ROOT))).update(latencyMs);
+    }
+
+    /**
+     * Turns free text into a single component of a dotted metric name.
+     *
+     * @param value - cloud name or template description
+     * @return value with every character other than letters, digits, '-' and '_' replaced by '_'
+     */
+    static String component(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return "unnamed";
+        }
+        String sanitized = value.trim().replaceAll("[^A-Za-z0-9_-]+", "_");
+        if (sanitized.length() > MAX_COMPONENT_LENGTH) {
+            String hash = String.format("%08x", value.hashCode());
+            sanitized = sanitized.substring(0, MAX_COMPONENT_LENGTH - hash.length() - 1) + "_" + hash;
+        }
+        return sanitized;
+    }
+}
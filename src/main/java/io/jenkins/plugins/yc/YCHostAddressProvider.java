@@ -9,9 +9,9 @@ public class YCHostAddressProvider {
     public static String getPrivateIpAddress(YCComputer computer) throws Exception {
         YCAbstractSlave abstractSlave = computer.getNode();
         if(abstractSlave != null && abstractSlave.getInstanceId() != null) {
-            YandexTemplate template = computer.getSlaveTemplate();
-            if(template != null) {
-                InstanceOuterClass.Instance instance = template.getInstanceResponse(abstractSlave.getInstanceId());
+            AbstractCloud cloud = computer.getCloud();
+            if(cloud != null) {
+                InstanceOuterClass.Instance instance = cloud.getInstanceCache().getInstance(abstractSlave.getInstanceId());
                 if (instance != null) {
                     Optional<InstanceOuterClass.NetworkInterface> networkInterface = instance.getNetworkInterfacesList().stream().findFirst();
                     if (networkInterface.isPresent()) {
@@ -0,0 +1,206 @@
+package io.jenkins.plugins.yc;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.RetentionStrategy;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import yandex.cloud.api.compute.v1.InstanceOuterClass;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks the idle and launch timeouts of all agents of a cloud from a single instance listing, instead of asking
+ * the cloud about every agent separately.
+ * <p>
+ * Every sweep issues at most {@code maxOperationsPerSweep} stop or delete operations per cloud, the remaining
+ * agents are handled by the next sweeps. Launch timeouts go first, they are instances that never came up.
+ * <p>
+ * Idle agents are scaled down at the time chosen by their {@link YCScaleDownPlan}. An agent due before the next
+ * sweep is scaled down by a timer at exactly that time, if it is still idle by then.
+ */
+@Extension
+public class YCIdleSweeper extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(YCIdleSweeper.class.getName());
+
+    private static final long RECURRENCE_PERIOD = Long.getLong(YCIdleSweeper.class.getName() + ".recurrencePeriodMs",
+            TimeUnit.MINUTES.toMillis(1));
+
+    private static final int MAX_OPERATIONS = Integer.getInteger(YCIdleSweeper.class.getName() + ".maxOperationsPerSweep", 10);
+
+    private static final long DEFAULT_PROVISION_TIME = TimeUnit.SECONDS.toMillis(
+            Long.getLong(YCIdleSweeper.class.getName() + ".defaultProvisionSeconds", 120));
+
+    /* Instances connected later than this after creation were started from the stopped state or adopted. */
+    private static final long MAX_PROVISION_TIME = TimeUnit.HOURS.toMillis(1);
+
+    /* Moving average of the time from instance creation to a connected agent, by template. */
+    private static final ConcurrentMap<String, Long> PROVISION_TIMES = new ConcurrentHashMap<>();
+
+    public YCIdleSweeper() {
+        super("Yandex Cloud idle sweeper");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        if (YandexRetentionStrategy.DISABLED) {
+            return;
+        }
+        for (YandexCloud cloud : Jenkins.get().clouds.getAll(YandexCloud.class)) {
+            try {
+                sweep(cloud);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to check idle agents of cloud " + cloud.name, e);
+            }
+        }
+    }
+
+    private void sweep(YandexCloud cloud) throws Exception {
+        List<YCComputer> computers = new ArrayList<>();
+        for (YCAbstractSlave node : YCNodeIndex.getNodes(cloud.name)) {
+            Computer computer = node.toComputer();
+            if (computer instanceof YCComputer) {
+                computers.add((YCComputer) computer);
+            }
+        }
+        if (computers.isEmpty()) {
+            return;
+        }
+        // one listing for all agents of the cloud, usually served by the instance cache
+        Map<String, InstanceOuterClass.Instance> instances = new HashMap<>();
+        for (InstanceOuterClass.Instance instance : cloud.getInstanceCache().getInstances()) {
+            instances.put(instance.getId(), instance);
+        }
+        int deferred = sweep(computers, instances, MAX_OPERATIONS);
+        if (deferred > 0) {
+            LOGGER.log(Level.INFO, "Cloud {0}: {1} timed out agents are left for the next sweep",
+                    new Object[]{cloud.name, deferred});
+        }
+    }
+
+    /**
+     * Checks the agents against the instance listing and issues at most {@code maxOperations} operations.
+     *
+     * @return number of timed out agents left for the next sweep
+     */
+    static int sweep(List<YCComputer> computers, Map<String, InstanceOuterClass.Instance> instances, int maxOperations) {
+        List<YCAbstractSlave> launchTimeouts = new ArrayList<>();
+        List<YCAbstractSlave> idleTimeouts = new ArrayList<>();
+        for (YCComputer computer : computers) {
+            YCAbstractSlave node = computer.getNode();
+            if (node == null || !node.isAcceptingTasks()) {
+                // deleted or already being terminated
+                continue;
+            }
+            InstanceOuterClass.Instance instance = instances.get(node.getInstanceId());
+            if (YCPreemption.isPreempted(computer, instance)) {
+                YCPreemption.handle(computer, YCPreemption.runningExecutors(computer));
+                continue;
+            }
+            RetentionStrategy<?> strategy = node.getRetentionStrategy();
+            if (!(strategy instanceof YandexRetentionStrategy)) {
+                continue;
+            }
+            switch (((YandexRetentionStrategy) strategy).evaluate(computer, instance)) {
+                case LAUNCH_TIMEOUT:
+                    launchTimeouts.add(node);
+                    break;
+                case IDLE_TIMEOUT:
+                    idleTimeouts.add(node);
+                    break;
+                default:
+                    break;
+            }
+        }
+        int launched = Math.min(launchTimeouts.size(), maxOperations);
+        for (YCAbstractSlave node : launchTimeouts.subList(0, launched)) {
+            node.launchTimeout();
+        }
+        int idled = Math.min(idleTimeouts.size(), maxOperations - launched);
+        for (YCAbstractSlave node : idleTimeouts.subList(0, idled)) {
+            node.idleTimeout();
+        }
+        int scheduled = 0;
+        long now = System.currentTimeMillis();
+        for (YCComputer computer : computers) {
+            YCScaleDownPlan plan = computer.getScaleDownPlan();
+            ScheduledFuture<?> task = computer.getScaleDownTask();
+            if (plan != null && !plan.isDue(now) && plan.getTerminateAt() - now < RECURRENCE_PERIOD
+                    && (task == null || task.isDone()) && launched + idled + scheduled < maxOperations) {
+                scheduleScaleDown(computer, plan, now);
+                scheduled++;
+            }
+        }
+        return launchTimeouts.size() + idleTimeouts.size() - launched - idled;
+    }
+
+    private static void scheduleScaleDown(YCComputer computer, YCScaleDownPlan plan, long now) {
+        computer.setScaleDownTask(Timer.get().schedule(() -> {
+            YCAbstractSlave node = computer.getNode();
+            // the agent may have taken a build since the plan was made
+            if (node != null && node.isAcceptingTasks() && computer.isIdle()
+                    && computer.getIdleStartMilliseconds() == plan.getIdleSince()
+                    && !YCWarmPoolMaintainer.isRetained(node)) {
+                LOGGER.log(Level.INFO, "Scaling down idle agent {0}: {1}", new Object[]{computer.getName(), plan.getReason()});
+                node.idleTimeout();
+            }
+        }, plan.getTerminateAt() - now, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Records how long the agent took from instance creation to connection.
+     */
+    static void recordProvisionTime(YCComputer computer) {
+        YCAbstractSlave node = computer.getNode();
+        if (node == null) {
+            return;
+        }
+        try {
+            InstanceOuterClass.Instance instance = computer.describeInstance();
+            if (instance == null) {
+                return;
+            }
+            long provisionTime = YCComputer.getUptime(instance, System.currentTimeMillis());
+            if (provisionTime > 0 && provisionTime < MAX_PROVISION_TIME) {
+                PROVISION_TIMES.merge(templateKey(node), provisionTime, (old, latest) -> (old * 3 + latest) / 4);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to record provisioning time of " + computer.getName(), e);
+        }
+    }
+
+    /**
+     * @return expected time from a create request to a connected agent of the template of the computer
+     */
+    static long getProvisionTime(YCComputer computer) {
+        YCAbstractSlave node = computer.getNode();
+        Long provisionTime = node == null ? null : PROVISION_TIMES.get(templateKey(node));
+        return provisionTime == null ? DEFAULT_PROVISION_TIME : provisionTime;
+    }
+
+    private static String templateKey(YCAbstractSlave node) {
+        return node.getCloudName() + "/" + node.getTemplateDescription();
+    }
+}
@@ -0,0 +1,111 @@
+package io.jenkins.plugins.yc;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * What the boot disk images of the templates provide to the launcher, learned from the first agent launched from
+ * each image on a freshly created instance. Images are immutable, so later launches from a known image skip the
+ * checks the image has passed.
+ */
+public final class YCImageCapabilities {
+
+    private static final ConcurrentMap<String, Capabilities> IMAGES = new ConcurrentHashMap<>();
+
+    private YCImageCapabilities() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * @param imageKey - boot disk image key, see {@link YandexTemplate#getImageKey()}
+     * @return capabilities of the image or null if no agent was launched from it yet
+     */
+    @CheckForNull
+    public static Capabilities get(@CheckForNull String imageKey) {
+        return StringUtils.isEmpty(imageKey) ? null : IMAGES.get(imageKey);
+    }
+
+    /**
+     * Records what the bootstrap of an agent has found on the image. Only a freshly created instance shows the image
+     * as it is, a restarted one keeps what earlier launches have installed.
+     *
+     * @param imageKey - boot disk image key
+     * @param freshInstance - true if the agent was launched on the first boot of a newly created instance
+     * @param javaVersion - output of {@code java -fullversion} or null if java had to be installed
+     * @param initScript - init script applied before java was checked, or null
+     * @return true if the capabilities were recorded
+     */
+    public static boolean record(@CheckForNull String imageKey, boolean freshInstance, @CheckForNull String javaVersion,
+                                 @CheckForNull String initScript) {
+        if (StringUtils.isEmpty(imageKey) || !freshInstance) {
+            return false;
+        }
+        IMAGES.put(imageKey, new Capabilities(javaVersion, digest(initScript), System.currentTimeMillis()));
+        return true;
+    }
+
+    public static void forget(@CheckForNull String imageKey) {
+        if (StringUtils.isNotEmpty(imageKey)) {
+            IMAGES.remove(imageKey);
+        }
+    }
+
+    @CheckForNull
+    private static String digest(@CheckForNull String initScript) {
+        String script = Util.fixEmptyAndTrim(initScript);
+        return script == null ? null : Util.getDigestOf(script);
+    }
+
+    public static final class Capabilities {
+        private final String javaVersion;
+        /* Digest of the init script which ran before java was found, null if there was none. */
+        private final String initScriptDigest;
+        private final long probedAt;
+
+        Capabilities(String javaVersion, String initScriptDigest, long probedAt) {
+            this.javaVersion = javaVersion;
+            this.initScriptDigest = initScriptDigest;
+            this.probedAt = probedAt;
+        }
+
+        public boolean hasJava() {
+            return javaVersion != null;
+        }
+
+        /**
+         * @param initScript - init script of the agent being launched, or null
+         * @return true if java is there without installing it: the image provides it, or the init script which
+         * installed it on the probed instance is applied to this agent too
+         */
+        public boolean providesJava(@CheckForNull String initScript) {
+            return javaVersion != null && (initScriptDigest == null || initScriptDigest.equals(digest(initScript)));
+        }
+
+        /**
+         * @return true if an init script ran before java was checked, java may come from it rather than the image
+         */
+        public boolean isInitScriptApplied() {
+            return initScriptDigest != null;
+        }
+
+        /**
+         * @return true if every launch from the image installs java with apt
+         */
+        public boolean needsJavaInstall() {
+            return javaVersion == null;
+        }
+
+        @CheckForNull
+        public String getJavaVersion() {
+            return javaVersion;
+        }
+
+        public long getProbedAt() {
+            return probedAt;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.jenkins.plugins.yc;
+
+import hudson.model.TaskListener;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.SlaveComputer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Launcher of agents which connect to the controller themselves over WebSocket.
+ * <p>
+ * The agent is started on the instance by cloud-init with the controller url, the agent name and the secret taken
+ * from the instance metadata, see {@link YandexTemplate#createVm()}. The controller opens no SSH connection and only
+ * waits for the inbound connection. It extends {@link JNLPLauncher} because Jenkins accepts inbound connections only
+ * for agents launched by it.
+ */
+public class YCInboundComputerLauncher extends JNLPLauncher {
+
+    private static final Logger LOGGER = Logger.getLogger(YCInboundComputerLauncher.class.getName());
+
+    public YCInboundComputerLauncher() {
+        super();
+        setWebSocket(true);
+    }
+
+    @Override
+    public void launch(SlaveComputer computer, TaskListener listener) {
+        LOGGER.log(Level.FINE, "Waiting for inbound agent {0} started by cloud-init", computer.getName());
+        listener.getLogger().println("Waiting for the agent to connect from the instance");
+    }
+}
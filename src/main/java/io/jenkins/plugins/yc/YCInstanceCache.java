@@ -0,0 +1,319 @@
+package io.jenkins.plugins.yc;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import jenkins.util.Timer;
+import org.apache.commons.lang.StringUtils;
+import yandex.cloud.api.compute.v1.InstanceOuterClass;
+import yandex.cloud.api.compute.v1.InstanceServiceOuterClass;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Folder-wide snapshot of the instances of one cloud.
+ * <p>
+ * All folders referenced by the templates of the cloud are listed with paged {@code ListInstances} calls, and
+ * every status, address or uptime lookup is answered from the last snapshot while it is younger than the TTL.
+ * Concurrent refreshes are collapsed into a single one.
+ */
+public class YCInstanceCache {
+
+    private static final Logger LOGGER = Logger.getLogger(YCInstanceCache.class.getName());
+
+    static final long TTL = Long.getLong(YCInstanceCache.class.getName() + ".ttlMs",
+            TimeUnit.SECONDS.toMillis(10));
+
+    /* A missing instance forces a refresh only if the snapshot is at least this old. */
+    static final long MIN_REFRESH_INTERVAL = Long.getLong(YCInstanceCache.class.getName() + ".minRefreshIntervalMs",
+            TimeUnit.SECONDS.toMillis(2));
+
+    private static final int PAGE_SIZE = 1000;
+
+    private final AbstractCloud cloud;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    private final Object refreshLock = new Object();
+    private CompletableFuture<Snapshot> inFlight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failedRefreshes = new AtomicLong();
+
+    public YCInstanceCache(AbstractCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Gets instance from the snapshot, refreshing it if it is older than the TTL.
+     *
+     * @param instanceId - vm instance id
+     * @return instance or null if it doesn't exist in the folders of the cloud
+     */
+    @CheckForNull
+    public InstanceOuterClass.Instance getInstance(String instanceId) throws Exception {
+        return getInstance(instanceId, false);
+    }
+
+    /**
+     * Gets instance from the snapshot.
+     *
+     * @param instanceId - vm instance id
+     * @param forceRefresh - reload the folders even if the snapshot is still fresh
+     * @return instance or null if it doesn't exist in the folders of the cloud
+     */
+    @CheckForNull
+    public InstanceOuterClass.Instance getInstance(String instanceId, boolean forceRefresh) throws Exception {
+        if (StringUtils.isEmpty(instanceId)) {
+            return null;
+        }
+        Snapshot current = forceRefresh ? refresh() : fresh();
+        InstanceOuterClass.Instance instance = current.instances.get(instanceId);
+        if (instance == null && !forceRefresh && current.age() >= MIN_REFRESH_INTERVAL) {
+            // instance could have been created after the snapshot was taken
+            misses.incrementAndGet();
+            instance = refresh().instances.get(instanceId);
+        }
+        return instance;
+    }
+
+    /**
+     * Gets all instances of the folder from the snapshot, refreshing it if it is older than the TTL.
+     *
+     * @param folderId - folder id
+     * @return instances of the folder
+     */
+    public List<InstanceOuterClass.Instance> getInstances(String folderId) throws Exception {
+        return getInstances(folderId, false);
+    }
+
+    /**
+     * Gets all instances of the folder from the snapshot.
+     *
+     * @param folderId - folder id
+     * @param forceRefresh - reload the folders even if the snapshot is still fresh
+     * @return instances of the folder
+     */
+    public List<InstanceOuterClass.Instance> getInstances(String folderId, boolean forceRefresh) throws Exception {
+        List<InstanceOuterClass.Instance> result = new ArrayList<>();
+        for (InstanceOuterClass.Instance instance : (forceRefresh ? refresh() : fresh()).instances.values()) {
+            if (instance.getFolderId().equals(folderId)) {
+                result.add(instance);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets all instances of the folder from the last snapshot without waiting for a listing, unless no snapshot was
+     * loaded yet. A snapshot older than the TTL is refreshed in the background for the next lookup.
+     *
+     * @param folderId - folder id
+     * @return instances of the folder, possibly outdated
+     */
+    public List<InstanceOuterClass.Instance> getCachedInstances(String folderId) throws Exception {
+        Snapshot current = snapshot;
+        if (refreshes.get() == 0) {
+            misses.incrementAndGet();
+            current = refresh();
+        } else if (current.age() >= TTL) {
+            misses.incrementAndGet();
+            refreshInBackground();
+        } else {
+            hits.incrementAndGet();
+        }
+        List<InstanceOuterClass.Instance> result = new ArrayList<>();
+        for (InstanceOuterClass.Instance instance : current.instances.values()) {
+            if (instance.getFolderId().equals(folderId)) {
+                result.add(instance);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets all instances of the cloud folders from the snapshot, refreshing it if it is older than the TTL.
+     *
+     * @return instances of the cloud
+     */
+    public Collection<InstanceOuterClass.Instance> getInstances() throws Exception {
+        return fresh().instances.values();
+    }
+
+    /**
+     * Marks the snapshot stale, the next lookup reloads the folders.
+     */
+    public void invalidate() {
+        snapshot = snapshot.stale();
+    }
+
+    private Snapshot fresh() throws Exception {
+        Snapshot current = snapshot;
+        if (current.age() < TTL) {
+            hits.incrementAndGet();
+            return current;
+        }
+        misses.incrementAndGet();
+        return refresh();
+    }
+
+    /**
+     * Reloads the folders. If a reload is already running, waits for it instead of starting another one.
+     */
+    public Snapshot refresh() throws Exception {
+        CompletableFuture<Snapshot> future;
+        boolean owner = false;
+        synchronized (refreshLock) {
+            if (inFlight == null) {
+                inFlight = new CompletableFuture<>();
+                owner = true;
+            }
+            future = inFlight;
+        }
+        if (owner) {
+            try {
+                Snapshot loaded = new Snapshot(load(), System.currentTimeMillis());
+                snapshot = loaded;
+                refreshes.incrementAndGet();
+                future.complete(loaded);
+            } catch (Exception e) {
+                failedRefreshes.incrementAndGet();
+                future.completeExceptionally(e);
+            } finally {
+                synchronized (refreshLock) {
+                    inFlight = null;
+                }
+            }
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private void refreshInBackground() {
+        synchronized (refreshLock) {
+            if (inFlight != null) {
+                return;
+            }
+        }
+        Timer.get().submit(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Cloud " + cloud.getDisplayName() + ": failed to refresh instances", e);
+            }
+        });
+    }
+
+    private Map<String, InstanceOuterClass.Instance> load() throws Exception {
+        Map<String, YandexTemplate> folders = new LinkedHashMap<>();
+        for (YandexTemplate t : cloud.getTemplates()) {
+            String folderId;
+            try {
+                folderId = t.getFolderId();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, t + ". Can't read folder id from init vm template", e);
+                continue;
+            }
+            if (StringUtils.isNotEmpty(folderId)) {
+                folders.putIfAbsent(folderId, t);
+            }
+        }
+        Map<String, InstanceOuterClass.Instance> result = new HashMap<>();
+        for (Map.Entry<String, YandexTemplate> folder : folders.entrySet()) {
+            String pageToken = "";
+            do {
+                InstanceServiceOuterClass.ListInstancesResponse response = folder.getValue()
+                        .listInstances(InstanceServiceOuterClass.ListInstancesRequest.newBuilder()
+                                .setFolderId(folder.getKey())
+                                .setPageSize(PAGE_SIZE)
+                                .setPageToken(pageToken)
+                                .build());
+                for (InstanceOuterClass.Instance instance : response.getInstancesList()) {
+                    result.put(instance.getId(), instance);
+                }
+                pageToken = response.getNextPageToken();
+            } while (StringUtils.isNotEmpty(pageToken));
+        }
+        LOGGER.log(Level.FINE, "Cloud {0}: loaded {1} instances from {2} folders",
+                new Object[]{cloud.getDisplayName(), result.size(), folders.size()});
+        return Collections.unmodifiableMap(result);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    public long getFailedRefreshes() {
+        return failedRefreshes.get();
+    }
+
+    public int getSize() {
+        return snapshot.instances.size();
+    }
+
+    public long getLastRefreshTime() {
+        return snapshot.time;
+    }
+
+    public String getLastRefreshAge() {
+        Snapshot current = snapshot;
+        return current.time > 0 ? Util.getTimeSpanString(current.age()) : "";
+    }
+
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), 0);
+
+        private final Map<String, InstanceOuterClass.Instance> instances;
+        private final long time;
+
+        Snapshot(Map<String, InstanceOuterClass.Instance> instances, long time) {
+            this.instances = instances;
+            this.time = time;
+        }
+
+        long age() {
+            return System.currentTimeMillis() - time;
+        }
+
+        Snapshot stale() {
+            return new Snapshot(instances, 0);
+        }
+
+        public Map<String, InstanceOuterClass.Instance> getInstances() {
+            return instances;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package io.jenkins.plugins.yc;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.ManagementLink;
+import hudson.security.Permission;
+import hudson.security.PermissionGroup;
+import hudson.security.PermissionScope;
+import io.jenkins.plugins.yc.util.CircuitBreaker;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Runtime state of the Yandex clouds: instance cache counters and other per-cloud statistics.
+ * <p>
+ * Provisioning latency histograms are also served in the Prometheus text format at {@code prometheus}, to users
+ * with {@link #VIEW_METRICS}, e.g. the account of a scraper.
+ */
+@Extension
+public class YCManagementLink extends ManagementLink {
+
+    public static final PermissionGroup PERMISSIONS = new PermissionGroup(YCManagementLink.class,
+            Messages._YCManagementLink_PermissionsTitle());
+
+    public static final Permission VIEW_METRICS = new Permission(PERMISSIONS, "ViewMetrics",
+            Messages._YCManagementLink_ViewMetricsPermissionDescription(), Jenkins.ADMINISTER, PermissionScope.JENKINS);
+
+    @Override
+    public String getIconFileName() {
+        return "symbol-computer";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.YCManagementLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.YCManagementLink_Description();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "yandex-cloud";
+    }
+
+    @NonNull
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    @SuppressWarnings("unused") // used by index.jelly
+    public List<YandexCloud> getClouds() {
+        return Jenkins.get().clouds.getAll(YandexCloud.class);
+    }
+
+    @SuppressWarnings("unused") // used by index.jelly
+    public List<YandexTemplate> getPreemptibleTemplates(YandexCloud cloud) {
+        return YCPreemption.getPreemptibleTemplates(cloud);
+    }
+
+    @SuppressWarnings("unused") // used by index.jelly
+    public YCPreemption.Stats getPreemptionStats(YandexTemplate t) {
+        return YCPreemption.getStats(t);
+    }
+
+    @SuppressWarnings("unused") // used by index.jelly
+    public String getProbeIn(CircuitBreaker breaker) {
+        long remaining = breaker.getRemainingOpenMs();
+        return remaining > 0 ? Util.getTimeSpanString(remaining) : "";
+    }
+
+    @SuppressWarnings("unused") // used by index.jelly
+    public List<YCMetricsInterceptor.MethodStats> getApiCalls(YandexCloud cloud) {
+        return cloud.getComputeClient().getMetrics().getMethods();
+    }
+
+    @SuppressWarnings("unused") // used by index.jelly
+    public List<YCProvisioningMetrics.Row> getProvisioningLatencies(YandexCloud cloud) {
+        return YCProvisioningMetrics.getRows(cloud.name);
+    }
+
+    public void doPrometheus(StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(VIEW_METRICS);
+        rsp.setContentType(YCProvisioningMetrics.PROMETHEUS_CONTENT_TYPE);
+        try (PrintWriter writer = rsp.getWriter()) {
+            writer.print(YCProvisioningMetrics.toPrometheus());
+        }
+    }
+}
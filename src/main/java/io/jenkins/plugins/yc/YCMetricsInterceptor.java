@@ -0,0 +1,166 @@
+package io.jenkins.plugins.yc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.jenkins.plugins.yc.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the calls of every API method of one cloud: calls, retries, calls in flight, latency and status codes.
+ * <p>
+ * It is the outermost interceptor of the channels, so calls which fail before they are sent, e.g. when no token
+ * can be obtained, are counted too.
+ */
+public class YCMetricsInterceptor implements ClientInterceptor {
+
+    /**
+     * Zero based attempt number of a call, set by callers which retry a failed call.
+     */
+    public static final CallOptions.Key<Integer> ATTEMPT = CallOptions.Key.createWithDefault("yc-attempt", 0);
+
+    private static final long[] RPC_BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    /* Sorted by method name for the management page. */
+    private final ConcurrentMap<String, MethodStats> methods = new ConcurrentSkipListMap<>();
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                               CallOptions callOptions, Channel next) {
+        MethodStats stats = methods.computeIfAbsent(method.getFullMethodName(), MethodStats::new);
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                long start = System.currentTimeMillis();
+                AtomicBoolean closed = new AtomicBoolean();
+                stats.started(callOptions.getOption(ATTEMPT) > 0);
+                try {
+                    super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            if (closed.compareAndSet(false, true)) {
+                                stats.closed(status.getCode(), System.currentTimeMillis() - start);
+                            }
+                            super.onClose(status, trailers);
+                        }
+                    }, headers);
+                } catch (RuntimeException e) {
+                    if (closed.compareAndSet(false, true)) {
+                        stats.closed(Status.fromThrowable(e).getCode(), System.currentTimeMillis() - start);
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * @return statistics of the methods called so far
+     */
+    public List<MethodStats> getMethods() {
+        return Collections.unmodifiableList(new ArrayList<>(methods.values()));
+    }
+
+    public static final class MethodStats {
+        private final String method;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LatencyHistogram latency = new LatencyHistogram(RPC_BOUNDS);
+        private final ConcurrentMap<Status.Code, LongAdder> codes = new ConcurrentSkipListMap<>();
+
+        MethodStats(String method) {
+            this.method = method;
+        }
+
+        void started(boolean retry) {
+            calls.increment();
+            if (retry) {
+                retries.increment();
+            }
+            inFlight.incrementAndGet();
+        }
+
+        void closed(Status.Code code, long latencyMs) {
+            inFlight.decrementAndGet();
+            latency.record(latencyMs);
+            codes.computeIfAbsent(code, c -> new LongAdder()).increment();
+        }
+
+        /**
+         * @return method name without the package, e.g. {@code InstanceService/Create}
+         */
+        public String getMethod() {
+            return method.substring(method.lastIndexOf('.', method.indexOf('/')) + 1);
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getErrors() {
+            long errors = 0;
+            for (Map.Entry<Status.Code, LongAdder> entry : codes.entrySet()) {
+                if (entry.getKey() != Status.Code.OK) {
+                    errors += entry.getValue().sum();
+                }
+            }
+            return errors;
+        }
+
+        public String getMean() {
+            return millis(latency.getMeanMs());
+        }
+
+        public String getP50() {
+            return millis(latency.getQuantileMs(0.5));
+        }
+
+        public String getP95() {
+            return millis(latency.getQuantileMs(0.95));
+        }
+
+        public String getP99() {
+            return millis(latency.getQuantileMs(0.99));
+        }
+
+        /**
+         * @return calls by status code, e.g. {@code OK: 120, UNAVAILABLE: 2}
+         */
+        public String getStatusCodes() {
+            StringJoiner result = new StringJoiner(", ");
+            for (Map.Entry<Status.Code, LongAdder> entry : codes.entrySet()) {
+                result.add(entry.getKey() + ": " + entry.getValue().sum());
+            }
+            return result.toString();
+        }
+
+        private static String millis(long ms) {
+            return ms == Long.MAX_VALUE ? "> 60s" : ms + "ms";
+        }
+    }
+}
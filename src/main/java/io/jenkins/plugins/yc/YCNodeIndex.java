@@ -0,0 +1,161 @@
+package io.jenkins.plugins.yc;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+import jenkins.model.NodeListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Agents of all Yandex clouds by instance id and by template, kept up to date by node events, so orphan and
+ * adoption checks don't scan every node of the controller.
+ */
+public final class YCNodeIndex {
+
+    private static final ConcurrentMap<String, YCAbstractSlave> BY_INSTANCE = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, Set<YCAbstractSlave>> BY_TEMPLATE = new ConcurrentHashMap<>();
+
+    private static volatile boolean loaded;
+
+    private YCNodeIndex() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * @param instanceId - vm instance id
+     * @return agent of the instance or null if the instance is not connected to this controller
+     */
+    @CheckForNull
+    public static YCAbstractSlave get(String instanceId) {
+        ensureLoaded();
+        return instanceId == null ? null : BY_INSTANCE.get(instanceId);
+    }
+
+    /**
+     * @param cloudName - cloud name
+     * @param templateDescription - template description
+     * @return agents created from the template
+     */
+    public static List<YCAbstractSlave> getNodes(String cloudName, String templateDescription) {
+        ensureLoaded();
+        Set<YCAbstractSlave> nodes = BY_TEMPLATE.get(templateKey(cloudName, templateDescription));
+        return nodes == null ? Collections.emptyList() : new ArrayList<>(nodes);
+    }
+
+    /**
+     * @param cloudName - cloud name
+     * @return agents of the cloud
+     */
+    public static List<YCAbstractSlave> getNodes(String cloudName) {
+        ensureLoaded();
+        List<YCAbstractSlave> result = new ArrayList<>();
+        for (Set<YCAbstractSlave> nodes : BY_TEMPLATE.values()) {
+            for (YCAbstractSlave node : nodes) {
+                if (cloudName.equals(node.getCloudName())) {
+                    result.add(node);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds the index from the node list of the controller.
+     */
+    public static synchronized void reload() {
+        BY_INSTANCE.clear();
+        BY_TEMPLATE.clear();
+        Jenkins j = Jenkins.getInstanceOrNull();
+        if (j != null) {
+            for (Node node : j.getNodes()) {
+                add(node);
+            }
+        }
+        loaded = true;
+    }
+
+    private static void ensureLoaded() {
+        if (!loaded) {
+            synchronized (YCNodeIndex.class) {
+                if (!loaded) {
+                    reload();
+                }
+            }
+        }
+    }
+
+    private static synchronized void add(Node node) {
+        if (node instanceof YCAbstractSlave) {
+            YCAbstractSlave slave = (YCAbstractSlave) node;
+            if (slave.getInstanceId() != null) {
+                BY_INSTANCE.put(slave.getInstanceId(), slave);
+            }
+            BY_TEMPLATE.computeIfAbsent(templateKey(slave.getCloudName(), slave.getTemplateDescription()),
+                    k -> ConcurrentHashMap.newKeySet()).add(slave);
+        }
+    }
+
+    private static synchronized void remove(Node node) {
+        if (node instanceof YCAbstractSlave) {
+            YCAbstractSlave slave = (YCAbstractSlave) node;
+            if (slave.getInstanceId() != null) {
+                BY_INSTANCE.remove(slave.getInstanceId(), slave);
+            }
+            Set<YCAbstractSlave> nodes = BY_TEMPLATE.get(templateKey(slave.getCloudName(), slave.getTemplateDescription()));
+            if (nodes != null) {
+                nodes.remove(slave);
+            }
+        }
+    }
+
+    private static String templateKey(String cloudName, String templateDescription) {
+        return cloudName + "/" + templateDescription;
+    }
+
+    @Extension
+    public static final class Listener extends NodeListener {
+
+        @Override
+        protected void onCreated(@NonNull Node node) {
+            if (loaded) {
+                add(node);
+            }
+            if (node instanceof YCAbstractSlave) {
+                YCAbstractSlave slave = (YCAbstractSlave) node;
+                YandexCloud cloud = slave.getCloud();
+                YandexTemplate template = cloud == null ? null : cloud.getTemplate(slave.getTemplateDescription());
+                if (template != null) {
+                    template.releaseReservation(slave.getNodeName());
+                }
+            }
+        }
+
+        @Override
+        protected void onUpdated(@NonNull Node oldOne, @NonNull Node newOne) {
+            if (loaded) {
+                remove(oldOne);
+                add(newOne);
+            }
+        }
+
+        @Override
+        protected void onDeleted(@NonNull Node node) {
+            if (loaded) {
+                remove(node);
+            }
+            if (node instanceof YCAbstractSlave && ((YCAbstractSlave) node).getInstanceId() != null) {
+                YCPreemption.forget(((YCAbstractSlave) node).getInstanceId());
+            }
+            YCProvisioningMetrics.forget(node.getNodeName());
+        }
+    }
+}
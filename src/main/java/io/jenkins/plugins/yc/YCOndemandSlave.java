@@ -7,6 +7,7 @@ import hudson.model.Descriptor.FormException;
 import hudson.model.Node;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.NodeProperty;
+import io.grpc.Status;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -15,6 +16,8 @@ import org.kohsuke.stapler.StaplerRequest;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,7 +51,18 @@ public class YCOndemandSlave extends YCAbstractSlave {
                            String tmpDir, List<? extends NodeProperty<?>> nodeProperties,
                            long launchTimeOut, boolean stopOnTerminate,
                            int numExecutors) throws FormException, IOException {
-        this(name, instanceId, description, remoteFS, numExecutors, labelString, new YCUnixComputerLauncher(), Mode.NORMAL, initScript, tmpDir, nodeProperties, stopOnTerminate, idleTerminationMinutes, null, cloudName,  launchTimeOut);
+        this(name, instanceId, description, remoteFS, labelString, cloudName, idleTerminationMinutes, initScript, tmpDir,
+                nodeProperties, launchTimeOut, stopOnTerminate, numExecutors, new YCUnixComputerLauncher());
+    }
+
+    public YCOndemandSlave(String name, String instanceId,
+                           String description, String remoteFS,
+                           String labelString, String cloudName,
+                           String idleTerminationMinutes, String initScript,
+                           String tmpDir, List<? extends NodeProperty<?>> nodeProperties,
+                           long launchTimeOut, boolean stopOnTerminate,
+                           int numExecutors, ComputerLauncher launcher) throws FormException, IOException {
+        this(name, instanceId, description, remoteFS, numExecutors, labelString, launcher, Mode.NORMAL, initScript, tmpDir, nodeProperties, stopOnTerminate, idleTerminationMinutes, null, cloudName,  launchTimeOut);
     }
 
     @Override
@@ -56,34 +70,50 @@ public class YCOndemandSlave extends YCAbstractSlave {
         if (terminateScheduled.getCount() == 0) {
             synchronized (terminateScheduled) {
                 if (terminateScheduled.getCount() == 0) {
-                    Computer.threadPoolForRemoting.submit(() -> {
-                        try {
-                            if (!isAlive(true)) {
-                                LOGGER.log(Level.INFO, "YC instance already terminated: " + getInstanceId());
-                            } else {
-                                YandexTemplate template = getCloud().getTemplate(getTemplateDescription());
-                                if (template != null) {
-                                    template.deleteInstanceResponse(getInstanceId());
-                                }
-                            }
-                            Jenkins.get().removeNode(this);
-                            LOGGER.log(Level.INFO, "Removed YC instance from jenkins master: " + getInstanceId());
-                        } catch (IOException e) {
-                            LOGGER.log(Level.WARNING, "Failed to terminate YC instance: " + getInstanceId(), e);
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
-                        } finally {
-                            synchronized (terminateScheduled) {
-                                terminateScheduled.countDown();
-                            }
-                        }
-                    });
                     terminateScheduled.reset();
+                    long terminateStart = System.currentTimeMillis();
+                    deleteInstance()
+                            .thenRunAsync(() -> {
+                                try {
+                                    Jenkins.get().removeNode(this);
+                                    LOGGER.log(Level.INFO, "Removed YC instance from jenkins master: " + getInstanceId());
+                                } catch (IOException e) {
+                                    throw new CompletionException(e);
+                                }
+                            }, Computer.threadPoolForRemoting)
+                            .whenComplete((result, e) -> {
+                                if (e != null) {
+                                    LOGGER.log(Level.WARNING, "Failed to terminate YC instance: " + getInstanceId(), e);
+                                } else {
+                                    YCProvisioningMetrics.terminated(this, System.currentTimeMillis() - terminateStart);
+                                }
+                                synchronized (terminateScheduled) {
+                                    terminateScheduled.countDown();
+                                }
+                            });
                 }
             }
         }
     }
 
+    private CompletableFuture<Void> deleteInstance() {
+        YandexCloud cloud = getCloud();
+        YandexTemplate template = cloud == null ? null : cloud.getTemplate(getTemplateDescription());
+        if (template == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return template.deleteInstance(getInstanceId())
+                .handle((response, e) -> {
+                    if (e != null) {
+                        if (Status.fromThrowable(e).getCode() != Status.Code.NOT_FOUND) {
+                            throw new CompletionException(e);
+                        }
+                        LOGGER.log(Level.INFO, "YC instance already terminated: " + getInstanceId());
+                    }
+                    return null;
+                });
+    }
+
     @Override
     public Node reconfigure(@NonNull final StaplerRequest req, JSONObject form) throws FormException {
         if (form == null) {
@@ -0,0 +1,115 @@
+package io.jenkins.plugins.yc;
+
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.jenkins.plugins.yc.exception.OperationFailed;
+import io.jenkins.plugins.yc.exception.YandexClientException;
+import io.jenkins.plugins.yc.util.ExponentialBackoff;
+import jenkins.util.Timer;
+import yandex.cloud.api.operation.OperationOuterClass;
+import yandex.cloud.api.operation.OperationServiceGrpc;
+import yandex.cloud.api.operation.OperationServiceOuterClass;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Waits for long-running operations returned by create/start/stop/delete.
+ * <p>
+ * The operation is re-read with exponential backoff and jitter, no thread waits between the reads. The returned
+ * future completes with the finished operation, or exceptionally if the operation failed or took too long.
+ */
+public class YCOperationTracker {
+
+    private static final Logger LOGGER = Logger.getLogger(YCOperationTracker.class.getName());
+
+    private static final long OPERATION_TIMEOUT = Long.getLong(YCOperationTracker.class.getName() + ".timeoutMinutes", 30);
+
+    private static final long REQUEST_TIMEOUT = Long.getLong(YCOperationTracker.class.getName() + ".requestTimeoutSeconds", 30);
+
+    private static final ExponentialBackoff BACKOFF = new ExponentialBackoff(
+            500, TimeUnit.SECONDS.toMillis(10), 1.6);
+
+    private final OperationServiceGrpc.OperationServiceFutureStub operationService;
+
+    private final ExponentialBackoff backoff;
+
+    private final long timeoutMs;
+
+    private final LongSupplier clock;
+
+    public YCOperationTracker(Channel channel) {
+        this(channel, BACKOFF, TimeUnit.MINUTES.toMillis(OPERATION_TIMEOUT), System::currentTimeMillis);
+    }
+
+    YCOperationTracker(Channel channel, ExponentialBackoff backoff, long timeoutMs, LongSupplier clock) {
+        this.operationService = OperationServiceGrpc.newFutureStub(channel);
+        this.backoff = backoff;
+        this.timeoutMs = timeoutMs;
+        this.clock = clock;
+    }
+
+    /**
+     * @param operation - operation returned by the API call
+     * @return future completed with the finished operation
+     */
+    public CompletableFuture<OperationOuterClass.Operation> await(OperationOuterClass.Operation operation) {
+        CompletableFuture<OperationOuterClass.Operation> result = new CompletableFuture<>();
+        long deadline = clock.getAsLong() + timeoutMs;
+        check(operation, 0, deadline, result);
+        return result;
+    }
+
+    private void check(OperationOuterClass.Operation operation, int attempt, long deadline,
+                       CompletableFuture<OperationOuterClass.Operation> result) {
+        if (operation.getDone()) {
+            if (operation.hasError()) {
+                result.completeExceptionally(new OperationFailed("Operation " + operation.getId() + " ("
+                        + operation.getDescription() + ") failed: " + operation.getError().getMessage(),
+                        operation.getError().getCode()));
+            } else {
+                result.complete(operation);
+            }
+            return;
+        }
+        if (clock.getAsLong() > deadline) {
+            result.completeExceptionally(new YandexClientException("Operation " + operation.getId() + " ("
+                    + operation.getDescription() + ") is not finished after " + TimeUnit.MILLISECONDS.toSeconds(timeoutMs) + "s"));
+            return;
+        }
+        Timer.get().schedule(() -> poll(operation, attempt, deadline, result),
+                backoff.delay(attempt), TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(OperationOuterClass.Operation operation, int attempt, long deadline,
+                      CompletableFuture<OperationOuterClass.Operation> result) {
+        CompletableFuture<OperationOuterClass.Operation> current;
+        try {
+            current = YCComputeClient.toCompletableFuture(operationService.withDeadlineAfter(REQUEST_TIMEOUT, TimeUnit.SECONDS)
+                    .get(OperationServiceOuterClass.GetOperationRequest.newBuilder()
+                            .setOperationId(operation.getId())
+                            .build()));
+        } catch (RuntimeException e) {
+            current = CompletableFuture.failedFuture(e);
+        }
+        current.whenComplete((read, e) -> {
+            if (e == null) {
+                check(read, attempt + 1, deadline, result);
+            } else if (isTransient(e)) {
+                LOGGER.log(Level.FINE, "Failed to read operation " + operation.getId() + ", will retry", e);
+                check(operation, attempt + 1, deadline, result);
+            } else {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private static boolean isTransient(Throwable e) {
+        Status.Code code = Status.fromThrowable(e).getCode();
+        return code == Status.Code.UNAVAILABLE || code == Status.Code.DEADLINE_EXCEEDED
+                || code == Status.Code.RESOURCE_EXHAUSTED;
+    }
+}
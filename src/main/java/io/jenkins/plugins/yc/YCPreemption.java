@@ -0,0 +1,253 @@
+package io.jenkins.plugins.yc;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.Action;
+import hudson.model.Actionable;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.Executor;
+import hudson.model.ParametersAction;
+import hudson.model.Queue;
+import hudson.model.Result;
+import io.grpc.Status;
+import io.jenkins.plugins.yc.exception.OperationFailed;
+import jenkins.model.CauseOfInterruption;
+import jenkins.model.Jenkins;
+import yandex.cloud.api.compute.v1.InstanceOuterClass;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Handling of preemptible instances: fallback decisions, preemption of running agents and per-template statistics.
+ * <p>
+ * A preempted instance is stopped by the cloud while the agent may still be running builds. The builds are
+ * aborted and scheduled again, the agent is removed and a replacement is provisioned right away, so the requeued
+ * builds don't wait for the next provisioning round.
+ */
+public final class YCPreemption {
+
+    private static final Logger LOGGER = Logger.getLogger(YCPreemption.class.getName());
+
+    /* google.rpc codes of operations which failed for lack of capacity. */
+    private static final int RESOURCE_EXHAUSTED = Status.Code.RESOURCE_EXHAUSTED.value();
+    private static final int UNAVAILABLE = Status.Code.UNAVAILABLE.value();
+
+    private static final ConcurrentMap<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    /* Preempted instances already handled, detected both on disconnect and by the idle sweeper. */
+    private static final Set<String> HANDLED = ConcurrentHashMap.newKeySet();
+
+    private YCPreemption() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * @param e - failure of a create request or of its operation
+     * @return true if the failure means there is no preemptible capacity right now
+     */
+    static boolean isCapacityUnavailable(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof OperationFailed) {
+            int code = ((OperationFailed) cause).getCode();
+            return code == RESOURCE_EXHAUSTED || code == UNAVAILABLE;
+        }
+        return Status.fromThrowable(cause).getCode() == Status.Code.RESOURCE_EXHAUSTED;
+    }
+
+    /**
+     * @param computer - agent computer
+     * @param instance - instance of the agent, null if it is not listed
+     * @return true if the instance is preemptible and was stopped while the agent was in use
+     */
+    static boolean isPreempted(YCComputer computer, @CheckForNull InstanceOuterClass.Instance instance) {
+        YCAbstractSlave node = computer.getNode();
+        // the agent stays online until the stop requested by the idle timeout completes
+        return node != null && !node.isStopRequested() && isStopped(instance)
+                && (computer.countBusy() > 0 || computer.isOnline());
+    }
+
+    /**
+     * @param instance - instance, null if it is not listed
+     * @return true if the instance is preemptible and stopping or stopped
+     */
+    static boolean isStopped(@CheckForNull InstanceOuterClass.Instance instance) {
+        if (instance == null || !instance.getSchedulingPolicy().getPreemptible()) {
+            return false;
+        }
+        String status = instance.getStatus().name();
+        return "STOPPING".equals(status) || "STOPPED".equals(status);
+    }
+
+    /**
+     * Builds running on the computer, captured before the executors are torn down.
+     */
+    static List<Executor> runningExecutors(YCComputer computer) {
+        List<Executor> result = new ArrayList<>();
+        for (Executor executor : computer.getAllExecutors()) {
+            if (executor.getCurrentExecutable() != null) {
+                result.add(executor);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Requeues the builds of the preempted agent, removes the agent and provisions a replacement.
+     *
+     * @param computer - computer of the preempted agent
+     * @param executors - executors which were running builds when the agent was preempted
+     */
+    static void handle(YCComputer computer, List<Executor> executors) {
+        YCAbstractSlave node = computer.getNode();
+        if (node == null || node.getInstanceId() == null || node.isStopRequested() || !HANDLED.add(node.getInstanceId())) {
+            return;
+        }
+        YandexCloud cloud = node.getCloud();
+        YandexTemplate t = cloud == null ? null : cloud.getTemplate(node.getTemplateDescription());
+        if (t != null) {
+            stats(t).preemptions.incrementAndGet();
+        }
+        LOGGER.log(Level.WARNING, "Instance {0} of agent {1} was preempted, requeueing {2} builds",
+                new Object[]{node.getInstanceId(), computer.getName(), executors.size()});
+        for (Executor executor : executors) {
+            requeue(executor, computer.getName());
+        }
+        if (node.isStopOnTerminate()) {
+            // the stopped instance is adopted again by the next provisioning of the template
+            try {
+                Jenkins.get().removeNode(node);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove preempted agent " + computer.getName(), e);
+            }
+        } else {
+            node.terminate();
+        }
+        if (cloud != null && t != null) {
+            try {
+                YCWarmPoolMaintainer.provisionAhead(cloud, t, 1);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, t + ". Failed to provision a replacement of preempted agent " + computer.getName(), e);
+            }
+        }
+    }
+
+    private static void requeue(Executor executor, String agentName) {
+        Queue.Executable executable = executor.getCurrentExecutable();
+        if (executable == null) {
+            return;
+        }
+        // a pipeline runs the node block as a separate executable of the build
+        Queue.Executable build = executable.getParentExecutable() != null ? executable.getParentExecutable() : executable;
+        Queue.Task task = build.getParent().getOwnerTask();
+        List<Action> actions = new ArrayList<>();
+        if (build instanceof Actionable) {
+            actions.addAll(((Actionable) build).getActions(ParametersAction.class));
+        }
+        actions.add(new CauseAction(new PreemptedCause(agentName)));
+        executor.interrupt(Result.ABORTED, new PreemptedInterruption(agentName));
+        if (Jenkins.get().getQueue().schedule2(task, 0, actions).isAccepted()) {
+            LOGGER.log(Level.INFO, "Requeued {0} after preemption of {1}", new Object[]{task.getFullDisplayName(), agentName});
+        }
+    }
+
+    static void forget(String instanceId) {
+        HANDLED.remove(instanceId);
+    }
+
+    static Stats stats(YandexTemplate t) {
+        return STATS.computeIfAbsent(t.parent.name + "/" + t.getDescription(), k -> new Stats());
+    }
+
+    /**
+     * @param t - template
+     * @return preemption statistics of the template since the controller started
+     */
+    public static Stats getStats(YandexTemplate t) {
+        Stats stats = STATS.get(t.parent.name + "/" + t.getDescription());
+        return stats == null ? new Stats() : stats;
+    }
+
+    /**
+     * @param cloud - cloud
+     * @return preemptible templates of the cloud
+     */
+    public static List<YandexTemplate> getPreemptibleTemplates(AbstractCloud cloud) {
+        List<YandexTemplate> result = new ArrayList<>();
+        for (YandexTemplate t : cloud.getTemplates()) {
+            if (t.isPreemptible()) {
+                result.add(t);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    public static final class Stats {
+        final AtomicLong created = new AtomicLong();
+        final AtomicLong fallbacks = new AtomicLong();
+        final AtomicLong preemptions = new AtomicLong();
+
+        /**
+         * @return preemptible instances created
+         */
+        public long getCreated() {
+            return created.get();
+        }
+
+        /**
+         * @return standard instances created because there was no preemptible capacity
+         */
+        public long getFallbacks() {
+            return fallbacks.get();
+        }
+
+        public long getPreemptions() {
+            return preemptions.get();
+        }
+
+        /**
+         * @return percentage of the created preemptible instances which were preempted while in use
+         */
+        public String getPreemptionRate() {
+            long total = created.get();
+            return total == 0 ? "" : String.format("%.1f%%", 100.0 * preemptions.get() / total);
+        }
+    }
+
+    public static final class PreemptedCause extends Cause {
+        private final String agentName;
+
+        PreemptedCause(String agentName) {
+            this.agentName = agentName;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Restarted after agent " + agentName + " was preempted";
+        }
+    }
+
+    public static final class PreemptedInterruption extends CauseOfInterruption {
+        private static final long serialVersionUID = 1L;
+
+        private final String agentName;
+
+        PreemptedInterruption(String agentName) {
+            this.agentName = agentName;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Agent " + agentName + " was preempted, the build is scheduled again";
+        }
+    }
+}
@@ -16,6 +16,10 @@ public class YCPrivateKey {
     private final Secret privateKey;
     private final String userName;
 
+    /* Decoded once, the key of a cloud is used by every provisioned instance. */
+    private transient volatile KeyPair keyPair;
+    private transient volatile String publicFingerprint;
+
     public YCPrivateKey(String privateKey, String userName) {
         this.privateKey = Secret.fromString(privateKey.trim());
         this.userName = userName;
@@ -35,17 +39,36 @@ public class YCPrivateKey {
         return privateKey;
     }
 
+    public KeyPair getKeyPair() throws IOException {
+        KeyPair result = keyPair;
+        if (result == null) {
+            try {
+                result = PEMEncodable.decode(privateKey.getPlainText()).toKeyPair();
+                if (result == null) {
+                    throw new UnrecoverableKeyException("private key is null");
+                }
+            } catch (UnrecoverableKeyException e) {
+                throw new IOException("This private key is password protected, which isn't supported yet");
+            }
+            keyPair = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return public key in the OpenSSH format
+     */
     public String getPublicFingerprint() throws IOException {
-        try {
-            PEMEncodable decode = PEMEncodable.decode(privateKey.getPlainText());
-            KeyPair keyPair = decode.toKeyPair();
-            if (keyPair == null) {
-                throw new UnrecoverableKeyException("private key is null");
+        String result = publicFingerprint;
+        if (result == null) {
+            try {
+                result = KeyFingerprinter.fingerPrint(getKeyPair());
+            } catch (CryptoException e) {
+                throw new IOException("Unsupported private key: " + e.getMessage());
             }
-            return KeyFingerprinter.fingerPrint(keyPair);
-        } catch (UnrecoverableKeyException | CryptoException e) {
-            throw new IOException("This private key is password protected, which isn't supported yet");
+            publicFingerprint = result;
         }
+        return result;
     }
 
     @Override
@@ -0,0 +1,292 @@
+package io.jenkins.plugins.yc;
+
+import hudson.ExtensionPoint;
+import io.jenkins.plugins.yc.util.LatencyHistogram;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Latency histograms of the provisioning phases of agents, by cloud and template.
+ * <p>
+ * Each new instance is followed from its create request through the phases of {@link Phase}; the time spent in a
+ * phase is counted from the end of the previous phase the agent went through, phases an agent skips (an inbound
+ * agent has no SSH phases) are not recorded. The time from the create request to the online agent is recorded as
+ * {@link Phase#AGENT_READY}. Agents started from stopped instances have no create request and are not followed.
+ * <p>
+ * Every recorded latency is also passed to the {@link Listener} extensions, e.g. to the histograms of the Metrics
+ * plugin when it is installed.
+ */
+public final class YCProvisioningMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(YCProvisioningMetrics.class.getName());
+
+    public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /* Agents which don't come online within this time are not followed anymore. */
+    private static final long MAX_PROVISION_TIME = TimeUnit.HOURS.toMillis(1);
+
+    /* Keys are cloud name and template description, sorted for stable output. */
+    private static final ConcurrentMap<Key, Map<Phase, LatencyHistogram>> HISTOGRAMS = new ConcurrentSkipListMap<>();
+
+    /* Agents being provisioned by node name. */
+    private static final ConcurrentMap<String, Timeline> TIMELINES = new ConcurrentHashMap<>();
+
+    public enum Phase {
+        RUNNING("Create request to RUNNING"),
+        SSH_REACHABLE("RUNNING to SSH reachable"),
+        AUTHENTICATED("SSH reachable to authenticated"),
+        ONLINE("Authenticated to remoting online"),
+        AGENT_READY("Create request to agent online"),
+        TERMINATION("Termination");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * Receives the latencies recorded for the provisioning phases, for other metrics systems.
+     */
+    public interface Listener extends ExtensionPoint {
+
+        /**
+         * @param cloudName - cloud name
+         * @param templateDescription - template description
+         * @param phase - phase
+         * @param latencyMs - time spent in the phase
+         */
+        void recorded(String cloudName, String templateDescription, Phase phase, long latencyMs);
+    }
+
+    private YCProvisioningMetrics() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Starts following a new agent.
+     *
+     * @param t - template of the agent
+     * @param nodeName - name of the instance and of its node
+     */
+    static void createRequested(YandexTemplate t, String nodeName) {
+        createRequested(t.parent.name, t.getDescription(), nodeName, System.currentTimeMillis());
+    }
+
+    static void createRequested(String cloudName, String templateDescription, String nodeName, long now) {
+        TIMELINES.values().removeIf(timeline -> now - timeline.requested > MAX_PROVISION_TIME);
+        TIMELINES.put(nodeName, new Timeline(new Key(cloudName, templateDescription), now));
+    }
+
+    /**
+     * Records the end of a phase of a followed agent. Phases reached again, e.g. by a reconnect, are ignored.
+     *
+     * @param nodeName - node name of the agent
+     * @param phase - phase, one of the provisioning phases
+     */
+    static void reached(String nodeName, Phase phase) {
+        reached(nodeName, phase, System.currentTimeMillis());
+    }
+
+    static void reached(String nodeName, Phase phase, long now) {
+        Timeline timeline = TIMELINES.get(nodeName);
+        if (timeline == null) {
+            return;
+        }
+        if (now - timeline.requested > MAX_PROVISION_TIME) {
+            // an agent which took this long was fixed by hand, its phases don't tell the provisioning latency
+            TIMELINES.remove(nodeName, timeline);
+            return;
+        }
+        synchronized (timeline) {
+            if (timeline.last != null && timeline.last.compareTo(phase) >= 0) {
+                return;
+            }
+            record(timeline.key, phase, now - timeline.lastTime);
+            timeline.last = phase;
+            timeline.lastTime = now;
+        }
+        if (phase == Phase.ONLINE) {
+            record(timeline.key, Phase.AGENT_READY, now - timeline.requested);
+            TIMELINES.remove(nodeName);
+        }
+    }
+
+    /**
+     * Stops following an agent which failed or was removed before coming online.
+     */
+    static void forget(String nodeName) {
+        TIMELINES.remove(nodeName);
+    }
+
+    /**
+     * @param node - terminated agent
+     * @param latencyMs - time from the terminate request to the removal of the agent
+     */
+    static void terminated(YCAbstractSlave node, long latencyMs) {
+        record(new Key(node.getCloudName(), node.getTemplateDescription()), Phase.TERMINATION, latencyMs);
+    }
+
+    private static void record(Key key, Phase phase, long latencyMs) {
+        HISTOGRAMS.computeIfAbsent(key, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(phase, p -> new LatencyHistogram())
+                .record(latencyMs);
+        Jenkins j = Jenkins.getInstanceOrNull();
+        if (j != null) {
+            for (Listener listener : j.getExtensionList(Listener.class)) {
+                try {
+                    listener.recorded(key.cloud, key.template, phase, latencyMs);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to pass provisioning latency to " + listener, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of agents being followed
+     */
+    static int getFollowed() {
+        return TIMELINES.size();
+    }
+
+    /**
+     * @param cloudName - cloud name
+     * @return recorded phases of the templates of the cloud
+     */
+    public static List<Row> getRows(String cloudName) {
+        List<Row> rows = new ArrayList<>();
+        for (Map.Entry<Key, Map<Phase, LatencyHistogram>> entry : HISTOGRAMS.entrySet()) {
+            if (!entry.getKey().cloud.equals(cloudName)) {
+                continue;
+            }
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = entry.getValue().get(phase);
+                if (histogram != null) {
+                    rows.add(new Row(entry.getKey().template, phase, histogram));
+                }
+            }
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * @return all histograms in the Prometheus text exposition format
+     */
+    public static String toPrometheus() {
+        String name = "yc_agent_provisioning_phase_seconds";
+        StringBuilder out = new StringBuilder()
+                .append("# HELP ").append(name).append(" Time spent by Yandex Cloud agents in a provisioning phase.\n")
+                .append("# TYPE ").append(name).append(" histogram\n");
+        for (Map.Entry<Key, Map<Phase, LatencyHistogram>> entry : HISTOGRAMS.entrySet()) {
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = entry.getValue().get(phase);
+                if (histogram != null) {
+                    String labels = "cloud=\"" + escape(entry.getKey().cloud) + "\",template=\""
+                            + escape(entry.getKey().template) + "\",phase=\"" + phase.name().toLowerCase(Locale.ROOT) + "\"";
+                    histogram.writePrometheus(out, name, labels);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public static final class Row {
+        private final String template;
+        private final Phase phase;
+        private final LatencyHistogram histogram;
+
+        Row(String template, Phase phase, LatencyHistogram histogram) {
+            this.template = template;
+            this.phase = phase;
+            this.histogram = histogram;
+        }
+
+        public String getTemplate() {
+            return template;
+        }
+
+        public String getPhase() {
+            return phase.getDisplayName();
+        }
+
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        public String getMean() {
+            return seconds(histogram.getMeanMs());
+        }
+
+        public String getP50() {
+            return seconds(histogram.getQuantileMs(0.5));
+        }
+
+        public String getP95() {
+            return seconds(histogram.getQuantileMs(0.95));
+        }
+
+        private static String seconds(long ms) {
+            return ms == Long.MAX_VALUE ? "> 600s" : String.format(Locale.ROOT, "%.1fs", ms / 1000.0);
+        }
+    }
+
+    private static final class Timeline {
+        private final Key key;
+        private final long requested;
+        private Phase last;
+        private long lastTime;
+
+        Timeline(Key key, long requested) {
+            this.key = key;
+            this.requested = requested;
+            this.lastTime = requested;
+        }
+    }
+
+    private static final class Key implements Comparable<Key> {
+        private final String cloud;
+        private final String template;
+
+        Key(String cloud, String template) {
+            this.cloud = String.valueOf(cloud);
+            this.template = String.valueOf(template);
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            int result = cloud.compareTo(o.cloud);
+            return result != 0 ? result : template.compareTo(o.template);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && compareTo((Key) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * cloud.hashCode() + template.hashCode();
+        }
+    }
+}
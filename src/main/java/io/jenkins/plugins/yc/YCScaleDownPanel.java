@@ -0,0 +1,17 @@
+package io.jenkins.plugins.yc;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.model.ComputerPanelBox;
+
+/**
+ * Shows on the agent page when an idle agent is scaled down, and what keeping it costs.
+ */
+@Extension
+public class YCScaleDownPanel extends ComputerPanelBox {
+
+    @CheckForNull
+    public YCScaleDownPlan getPlan() {
+        return getComputer() instanceof YCComputer ? ((YCComputer) getComputer()).getScaleDownPlan() : null;
+    }
+}
@@ -0,0 +1,127 @@
+package io.jenkins.plugins.yc;
+
+import hudson.Util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When an idle agent is scaled down and why.
+ * <p>
+ * The agent is never scaled down before its idle timeout. With per-hour billing it is then kept until just before
+ * the next paid hour starts, the rest of the hour is paid anyway. With per-second billing it is kept while it
+ * costs less than bringing up a new agent would: until the minimum charge is used up, and for as long as a new
+ * agent takes to provision, since a new instance is paid while it boots. A build that reuses the agent before
+ * then saves the provisioning time, waiting longer costs more than the provisioning saved.
+ */
+public final class YCScaleDownPlan {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final YCBillingModel billingModel;
+
+    private final long idleSince;
+
+    private final long terminateAt;
+
+    private final String reason;
+
+    /* VM time paid from now until the agent is scaled down. */
+    private final long keepCost;
+
+    /* VM time saved if a build reuses the agent instead of provisioning a new one. */
+    private final long reuseSaving;
+
+    private YCScaleDownPlan(YCBillingModel billingModel, long idleSince, long terminateAt, String reason,
+                            long keepCost, long reuseSaving) {
+        this.billingModel = billingModel;
+        this.idleSince = idleSince;
+        this.terminateAt = terminateAt;
+        this.reason = reason;
+        this.keepCost = keepCost;
+        this.reuseSaving = reuseSaving;
+    }
+
+    /**
+     * @param billingModel - billing of the instance
+     * @param createdAt - instance creation time
+     * @param idleSince - time the agent became idle
+     * @param idleTimeoutMs - configured idle timeout, 0 for none
+     * @param hourlyMarginMs - how long before the end of a paid hour the agent is scaled down
+     * @param provisionMs - time a new agent takes to provision
+     * @param now - current time
+     * @return plan of the agent
+     */
+    public static YCScaleDownPlan plan(YCBillingModel billingModel, long createdAt, long idleSince, long idleTimeoutMs,
+                                       long hourlyMarginMs, long provisionMs, long now) {
+        long earliest = idleSince + Math.max(idleTimeoutMs, 0);
+        if (billingModel == YCBillingModel.PER_HOUR) {
+            // first end of a paid hour at or after the idle timeout
+            long hours = Math.max((earliest - createdAt + HOUR - 1) / HOUR, 1);
+            long hourEnd = createdAt + hours * HOUR;
+            long terminateAt = Math.max(hourEnd - hourlyMarginMs, earliest);
+            String reason = terminateAt > earliest ? "the current hour is paid anyway" : "idle timeout";
+            return new YCScaleDownPlan(billingModel, idleSince, terminateAt, reason, 0, Math.max(provisionMs, 0));
+        }
+        long minimumPaidUntil = createdAt + TimeUnit.SECONDS.toMillis(billingModel.getMinimumChargeSeconds());
+        // a new agent is paid for its provisioning time, and at least the minimum charge
+        long provisionCost = Math.max(provisionMs, TimeUnit.SECONDS.toMillis(billingModel.getMinimumChargeSeconds()));
+        long breakEven = idleSince + provisionCost;
+        long terminateAt = Math.max(earliest, Math.max(breakEven, minimumPaidUntil));
+        String reason;
+        if (terminateAt == earliest) {
+            reason = "idle timeout";
+        } else if (terminateAt == breakEven) {
+            reason = "keeping the agent idle is cheaper than provisioning a new one until then";
+        } else {
+            reason = "the minimum charge is paid until then";
+        }
+        long keepCost = Math.max(terminateAt - Math.max(now, minimumPaidUntil), 0);
+        return new YCScaleDownPlan(billingModel, idleSince, terminateAt, reason, keepCost, provisionCost);
+    }
+
+    public YCBillingModel getBillingModel() {
+        return billingModel;
+    }
+
+    public long getIdleSince() {
+        return idleSince;
+    }
+
+    public long getTerminateAt() {
+        return terminateAt;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public long getKeepCost() {
+        return keepCost;
+    }
+
+    public long getReuseSaving() {
+        return reuseSaving;
+    }
+
+    public boolean isDue(long now) {
+        return now >= terminateAt;
+    }
+
+    /**
+     * @return plan summary shown on the agent page
+     */
+    public String getSummary() {
+        long left = terminateAt - System.currentTimeMillis();
+        StringBuilder summary = new StringBuilder();
+        if (left > 0) {
+            summary.append("Scaled down in ").append(Util.getTimeSpanString(left));
+        } else {
+            summary.append("Scaled down now");
+        }
+        summary.append(": ").append(reason).append(". Billing: ").append(billingModel.getDisplayName())
+                .append(". Keeping the agent costs ").append(Util.getTimeSpanString(keepCost))
+                .append(" of VM time, a build that reuses it saves ").append(Util.getTimeSpanString(reuseSaving))
+                .append(".");
+        return summary.toString();
+    }
+}
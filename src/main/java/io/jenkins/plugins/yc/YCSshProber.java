@@ -0,0 +1,264 @@
+package io.jenkins.plugins.yc;
+
+import io.jenkins.plugins.yc.util.ExponentialBackoff;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Waits for the SSH servers of launching agents to come up.
+ * <p>
+ * A single thread owns a {@link Selector} and keeps a non-blocking connect open for every pending host. A host is
+ * ready as soon as the SSH banner is received, the launcher is then completed without waiting for the next retry.
+ * Failed attempts are retried with a short backoff instead of fixed sleeps.
+ */
+public final class YCSshProber {
+
+    private static final Logger LOGGER = Logger.getLogger(YCSshProber.class.getName());
+
+    private static final long CONNECT_TIMEOUT = Long.getLong(YCSshProber.class.getName() + ".connectTimeoutMs",
+            TimeUnit.SECONDS.toMillis(10));
+
+    private static final ExponentialBackoff RETRY_BACKOFF = new ExponentialBackoff(500, 5000, 2);
+
+    private static final YCSshProber INSTANCE = new YCSshProber(CONNECT_TIMEOUT, RETRY_BACKOFF);
+
+    private static final byte[] SSH_BANNER = "SSH-".getBytes(StandardCharsets.US_ASCII);
+
+    /* Banner may be preceded by other lines, RFC 4253 section 4.2. */
+    private static final int MAX_PRELUDE = 8192;
+
+    private final Queue<Probe> incoming = new ConcurrentLinkedQueue<>();
+
+    /* Owned by the selector thread. */
+    private final PriorityQueue<Probe> waiting = new PriorityQueue<>(Comparator.comparingLong(p -> p.nextAttemptAt));
+
+    private final long connectTimeout;
+
+    private final ExponentialBackoff retryBackoff;
+
+    private Selector selector;
+
+    YCSshProber(long connectTimeout, ExponentialBackoff retryBackoff) {
+        this.connectTimeout = connectTimeout;
+        this.retryBackoff = retryBackoff;
+    }
+
+    public static YCSshProber get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits until the SSH server answers on the host.
+     *
+     * @param host - host address
+     * @param port - ssh port
+     * @param timeoutMs - overall timeout, 0 for none
+     * @return future completed with the host once the SSH banner is received
+     */
+    public CompletableFuture<String> awaitSsh(String host, int port, long timeoutMs) {
+        Probe probe = new Probe(host, port, timeoutMs > 0 ? System.currentTimeMillis() + timeoutMs : Long.MAX_VALUE);
+        try {
+            incoming.add(probe);
+            ensureStarted().wakeup();
+        } catch (IOException e) {
+            probe.result.completeExceptionally(e);
+        }
+        return probe.result;
+    }
+
+    private synchronized Selector ensureStarted() throws IOException {
+        if (selector == null) {
+            selector = Selector.open();
+            Thread thread = new Thread(this::run, "Yandex Cloud SSH prober");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return selector;
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                Probe p;
+                while ((p = incoming.poll()) != null) {
+                    waiting.add(p);
+                }
+                long now = System.currentTimeMillis();
+                while ((p = waiting.peek()) != null && p.nextAttemptAt <= now) {
+                    waiting.poll();
+                    attempt(p, now);
+                }
+                long wakeUp = expire(now);
+                if (!waiting.isEmpty()) {
+                    wakeUp = Math.min(wakeUp, waiting.peek().nextAttemptAt);
+                }
+                // woken up for the next attempt or the next deadline of an open connection
+                selector.select(Math.min(Math.max(wakeUp - now, 1), 1000));
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Probe probe = (Probe) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isConnectable()) {
+                            probe.channel.finishConnect();
+                            key.interestOps(SelectionKey.OP_READ);
+                        } else if (key.isReadable()) {
+                            read(probe);
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        retry(probe, e);
+                    }
+                }
+                selector.selectedKeys().clear();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "SSH prober failure", e);
+            }
+        }
+    }
+
+    private void attempt(Probe p, long now) {
+        if (p.result.isDone()) {
+            return;
+        }
+        if (now > p.deadline) {
+            p.result.completeExceptionally(new TimeoutException("Timed out waiting for ssh to become available"));
+            return;
+        }
+        try {
+            p.buffer.clear();
+            p.channel = SocketChannel.open();
+            p.channel.configureBlocking(false);
+            p.connectDeadline = now + connectTimeout;
+            if (p.channel.connect(p.address)) {
+                p.channel.register(selector, SelectionKey.OP_READ, p);
+            } else {
+                p.channel.register(selector, SelectionKey.OP_CONNECT, p);
+            }
+        } catch (Exception e) {
+            retry(p, e);
+        }
+    }
+
+    private void read(Probe p) throws IOException {
+        if (p.channel.read(p.buffer) < 0) {
+            throw new IOException("Connection closed before the SSH banner was received");
+        }
+        byte[] data = p.buffer.array();
+        int length = p.buffer.position();
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (i - lineStart == SSH_BANNER.length - 1 && startsWithBanner(data, lineStart, length)) {
+                close(p);
+                LOGGER.log(Level.FINE, "SSH is up on {0}:{1}", new Object[]{p.host, p.port});
+                p.result.complete(p.host);
+                return;
+            }
+            if (data[i] == '\n') {
+                lineStart = i + 1;
+            }
+        }
+        if (!p.buffer.hasRemaining()) {
+            throw new IOException("No SSH banner received from " + p.host + ":" + p.port);
+        }
+    }
+
+    private static boolean startsWithBanner(byte[] data, int offset, int length) {
+        if (length - offset < SSH_BANNER.length) {
+            return false;
+        }
+        for (int i = 0; i < SSH_BANNER.length; i++) {
+            if (data[offset + i] != SSH_BANNER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the connections past their deadlines.
+     *
+     * @return time of the next deadline of the open connections
+     */
+    private long expire(long now) {
+        long next = Long.MAX_VALUE;
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid()) {
+                continue;
+            }
+            Probe p = (Probe) key.attachment();
+            if (p.result.isDone()) {
+                // cancelled by the launcher
+                close(p);
+            } else if (now > p.deadline) {
+                close(p);
+                p.result.completeExceptionally(new TimeoutException("Timed out waiting for ssh to become available"));
+            } else if (now > p.connectDeadline) {
+                retry(p, new IOException("Connection to " + p.host + ":" + p.port + " timed out"));
+            } else {
+                next = Math.min(next, Math.min(p.connectDeadline, p.deadline) + 1);
+            }
+        }
+        return next;
+    }
+
+    private void retry(Probe p, Exception cause) {
+        close(p);
+        if (p.result.isDone()) {
+            return;
+        }
+        long delay = retryBackoff.delay(p.attempt++);
+        LOGGER.log(Level.FINE, "Waiting for SSH to come up on {0}: {1}. Retry in {2}ms",
+                new Object[]{p.host, cause.getMessage(), delay});
+        p.nextAttemptAt = System.currentTimeMillis() + delay;
+        waiting.add(p);
+    }
+
+    private static void close(Probe p) {
+        if (p.channel != null) {
+            try {
+                p.channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close probe connection", e);
+            }
+            p.channel = null;
+        }
+    }
+
+    private static final class Probe {
+        private final String host;
+        private final int port;
+        /* Resolved by the caller, the selector thread never blocks on a lookup. */
+        private final InetSocketAddress address;
+        private final long deadline;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final ByteBuffer buffer = ByteBuffer.allocate(MAX_PRELUDE);
+        private SocketChannel channel;
+        private long connectDeadline;
+        private long nextAttemptAt;
+        private int attempt;
+
+        Probe(String host, int port, long deadline) {
+            this.host = host;
+            this.port = port;
+            this.address = new InetSocketAddress(host, port);
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package io.jenkins.plugins.yc;
+
+import io.jenkins.plugins.yc.exception.LoginFailed;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import yandex.cloud.sdk.auth.IamToken;
+import yandex.cloud.sdk.auth.provider.CredentialProvider;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * IAM token of one service account key, shared by every cloud and template that uses the same credentials.
+ * <p>
+ * The token is minted once and then refreshed in the background when half of its lifetime has passed, so
+ * {@link #get()} only returns the cached token. The caller blocks on IAM only if there is no valid token at all,
+ * e.g. on the very first call or when the background refresh has been failing until expiration.
+ */
+public final class YCTokenManager implements CredentialProvider {
+
+    private static final Logger LOGGER = Logger.getLogger(YCTokenManager.class.getName());
+
+    private static final ConcurrentMap<String, YCTokenManager> MANAGERS = new ConcurrentHashMap<>();
+
+    /* Token is not handed out if it expires sooner than this. */
+    private static final Duration EXPIRATION_GAP = Duration.ofMinutes(1);
+
+    private static final long MIN_REFRESH_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private final String credentialsId;
+
+    private final Callable<IamToken> minter;
+
+    private final Clock clock;
+
+    private final Supplier<ScheduledExecutorService> scheduler;
+
+    private volatile IamToken token;
+
+    private ScheduledFuture<?> refreshTask;
+
+    private YCTokenManager(String credentialsId) {
+        this(credentialsId, () -> mint(credentialsId), Clock.systemUTC(), Timer::get);
+    }
+
+    YCTokenManager(String credentialsId, Callable<IamToken> minter, Clock clock, Supplier<ScheduledExecutorService> scheduler) {
+        this.credentialsId = credentialsId;
+        this.minter = minter;
+        this.clock = clock;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Gets token manager for the service account key stored in the file credentials.
+     *
+     * @param credentialsId - id of the file credentials with the service account key
+     * @return shared token manager
+     */
+    public static YCTokenManager forCredentials(String credentialsId) {
+        return MANAGERS.computeIfAbsent(credentialsId, YCTokenManager::new);
+    }
+
+    /**
+     * Starts minting the token in the background, so the first API call doesn't wait for IAM.
+     *
+     * @param credentialsId - id of the file credentials with the service account key
+     */
+    public static void prefetch(String credentialsId) {
+        YCTokenManager manager = forCredentials(credentialsId);
+        if (manager.token == null) {
+            manager.schedule(0);
+        }
+    }
+
+    /**
+     * Re-reads the credentials of every manager in the background. The current tokens are used until the new
+     * ones are minted.
+     */
+    public static void reloadAll() {
+        for (YCTokenManager manager : MANAGERS.values()) {
+            manager.schedule(0);
+        }
+    }
+
+    @Override
+    public IamToken get() {
+        IamToken current = token;
+        if (isValid(current)) {
+            return current;
+        }
+        synchronized (this) {
+            current = token;
+            if (isValid(current)) {
+                return current;
+            }
+            LOGGER.log(Level.WARNING, "Token for credentials {0} is null or expired. Generate new", credentialsId);
+            try {
+                return refresh();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new LoginFailed(e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // shared between clouds, the token is kept until Jenkins stops
+    }
+
+    private boolean isValid(IamToken token) {
+        return token != null && token.getExpiresAt().isAfter(clock.instant().plus(EXPIRATION_GAP));
+    }
+
+    private static IamToken mint(String credentialsId) throws Exception {
+        ServiceAccount serviceAccount = AbstractCloud.DescriptorImpl.getCredentials(credentialsId);
+        if (serviceAccount == null) {
+            throw new LoginFailed("Failed find serviceAccount");
+        }
+        try (CredentialProvider provider = serviceAccount.buildCredentialProvider()) {
+            return provider.get();
+        }
+    }
+
+    private synchronized IamToken refresh() throws Exception {
+        IamToken minted = minter.call();
+        if (minted == null || minted.getToken() == null) {
+            throw new LoginFailed("Failed to login!");
+        }
+        token = minted;
+        long lifetime = Duration.between(clock.instant(), minted.getExpiresAt()).toMillis();
+        schedule(Math.max(lifetime / 2, MIN_REFRESH_DELAY));
+        LOGGER.log(Level.FINE, "Token for credentials {0} refreshed, expires at {1}",
+                new Object[]{credentialsId, minted.getExpiresAt()});
+        return minted;
+    }
+
+    private synchronized void schedule(long delayMs) {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
+        refreshTask = scheduler.get().schedule(this::backgroundRefresh, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void backgroundRefresh() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            if (!isInUse()) {
+                LOGGER.log(Level.FINE, "Credentials {0} are not used by any cloud, stop refreshing", credentialsId);
+                MANAGERS.remove(credentialsId, this);
+                return;
+            }
+            LOGGER.log(Level.WARNING, "Failed to refresh token for credentials " + credentialsId
+                    + ", will retry in " + TimeUnit.MILLISECONDS.toSeconds(RETRY_DELAY) + "s", e);
+            schedule(RETRY_DELAY);
+        }
+    }
+
+    private boolean isInUse() {
+        Jenkins j = Jenkins.getInstanceOrNull();
+        if (j == null) {
+            return false;
+        }
+        for (YandexCloud cloud : j.clouds.getAll(YandexCloud.class)) {
+            if (credentialsId.equals(cloud.getCredentialsId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -2,7 +2,6 @@ package io.jenkins.plugins.yc;
 
 import com.trilead.ssh2.Connection;
 import com.trilead.ssh2.HTTPProxyData;
-import com.trilead.ssh2.SCPClient;
 import com.trilead.ssh2.ServerHostKeyVerifier;
 import com.trilead.ssh2.Session;
 import hudson.ProxyConfiguration;
@@ -10,14 +9,18 @@ import hudson.Util;
 import hudson.model.TaskListener;
 import hudson.remoting.Channel;
 import jenkins.model.Jenkins;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import io.jenkins.plugins.yc.exception.YandexClientException;
+import io.jenkins.plugins.yc.util.ExponentialBackoff;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,7 +29,9 @@ public class YCUnixComputerLauncher extends YCComputerLauncher{
 
     private static final Logger LOGGER = Logger.getLogger(YCUnixComputerLauncher.class.getName());
 
-    private static final int bootstrapAuthSleepMs = 30000;
+    private static final ExponentialBackoff AUTH_BACKOFF = new ExponentialBackoff(1000, 30000, 2);
+
+    private static final ExponentialBackoff CONNECT_BACKOFF = new ExponentialBackoff(500, 5000, 2);
 
     @Override
     protected boolean launchScript(YCComputer computer, TaskListener listener) throws IOException {
@@ -46,70 +51,56 @@ public class YCUnixComputerLauncher extends YCComputerLauncher{
         }
 
         LOGGER.log(Level.INFO, String.format("Launch instance with id: %s", node.getInstanceId()));
-        YCPrivateKey ycPrivateKey = computer.getCloud().resolvePrivateKey();
+        final long launchStart = System.currentTimeMillis();
         try{
-            boolean isBootstrapped = bootstrap(computer, listener, template);
-            if (isBootstrapped) {
-                if(ycPrivateKey != null) {
-                    LOGGER.log(Level.INFO, "connect fresh as " + ycPrivateKey.getUserName());
-                    cleanupConn = connectToSsh(computer, listener);
-                    if (!cleanupConn.authenticateWithPublicKey(ycPrivateKey.getUserName(),
-                            ycPrivateKey.getPrivateKey().toCharArray(), "")) {
-                        LOGGER.log(Level.WARNING, "Authentication failed");
-                        return false;
-                    }
-                }else{
-                    LOGGER.log(Level.WARNING, "Authentication failed");
-                    return false;
-                }
-            } else {
+            // the authenticated bootstrap connection is used for the whole launch
+            cleanupConn = bootstrap(computer, listener, template);
+            if (cleanupConn == null) {
                 LOGGER.log(Level.WARNING, "Bootstrap result failed");
                 throw new YandexClientException("Ssh connection error");
             }
+            YCProvisioningMetrics.reached(computer.getName(), YCProvisioningMetrics.Phase.AUTHENTICATED);
+            LOGGER.log(Level.INFO, "Connected and authenticated to " + node.getInstanceId() + " in "
+                    + (System.currentTimeMillis() - launchStart) + "ms");
             conn = cleanupConn;
-            SCPClient scp = conn.createSCPClient();
             String initScript = node.getInitScript();
             String tmpDir = (Util.fixEmptyAndTrim(node.getTmpDir()) != null ? node.getTmpDir() : "/tmp");
-            LOGGER.log(Level.INFO,  "Creating tmp directory (" + tmpDir + ") if it does not exist");
-            conn.exec("mkdir -p " + tmpDir, logger);
-            if (initScript != null && initScript.trim().length() > 0
-                    && conn.exec("test -e ~/.hudson-run-init", logger) != 0) {
-                LOGGER.log(Level.INFO, "Executing init script");
-                scp.put(initScript.getBytes("UTF-8"), "init.sh", tmpDir, "0700");
-                Session sess = conn.openSession();
-                sess.requestDumbPTY();
-                sess.execCommand(buildUpCommand(tmpDir + "/init.sh"));
-                sess.getStdin().close();
-                sess.getStderr().close();
-                IOUtils.copy(sess.getStdout(), logger);
-                int exitStatus = waitCompletion(sess);
-                if (exitStatus != 0) {
-                    LOGGER.log(Level.WARNING, "init script failed: exit code=" + exitStatus);
-                    return false;
-                }
-                sess.close();
-                LOGGER.log(Level.INFO, "Creating ~/.hudson-run-init");
-                sess = conn.openSession();
-                sess.requestDumbPTY();
-                sess.execCommand(buildUpCommand("touch ~/.hudson-run-init"));
-                sess.getStdin().close();
-                sess.getStderr().close();
-                IOUtils.copy(sess.getStdout(), logger);
-                exitStatus = waitCompletion(sess);
-                if (exitStatus != 0) {
-                    LOGGER.log(Level.WARNING, "init script failed: exit code=" + exitStatus);
-                    return false;
-                }
-                sess.close();
+            YCBootstrapBundle bundle = new YCBootstrapBundle(tmpDir);
+            if (initScript != null && initScript.trim().length() > 0) {
+                bundle.withFile("init.sh", initScript.getBytes(StandardCharsets.UTF_8), 0700)
+                        .withScript("if [ ! -e ~/.hudson-run-init ]; then\n"
+                                + "  step init " + buildUpCommand(YCBootstrapBundle.quote(tmpDir + "/init.sh")) + " || exit $?\n"
+                                + "  step init-marker " + buildUpCommand("touch ~/.hudson-run-init") + " || exit $?\n"
+                                + "fi");
+            }
+            String imageKey = template.getImageKey();
+            YCImageCapabilities.Capabilities capabilities = YCImageCapabilities.get(imageKey);
+            if (capabilities != null && capabilities.providesJava(initScript)) {
+                LOGGER.log(Level.FINE, "Image " + imageKey + " provides " + capabilities.getJavaVersion() + ", skipping java check");
+            } else {
+                // the marker tells java of the image from java installed by an earlier launch of a stopped instance
+                bundle.withScript("if v=$(java -fullversion 2>&1); then\n"
+                        + "  [ -e ~/.yc-java-installed ] || echo \"" + YCBootstrapBundle.INFO_MARKER + "java $v\"\n"
+                        + "else\n"
+                        + "  step install-java sh -c 'sudo apt update; sudo apt install default-jdk -y' || exit $?\n"
+                        + "  touch ~/.yc-java-installed\n"
+                        + "fi");
+            }
+            bundle.withFile("remoting.jar", YCBootstrapBundle.getRemotingJar(), 0644);
+            LOGGER.log(Level.INFO, "Sending bootstrap bundle to: " + tmpDir);
+            int exitStatus = bundle.run(conn, logger);
+            if (exitStatus != 0) {
+                LOGGER.log(Level.WARNING, "Bootstrap failed: exit code=" + exitStatus + ", steps=" + bundle.getResults());
+                return false;
             }
-            executeRemote(conn, "java -fullversion", "sudo apt update; sudo apt install default-jdk -y", logger);
-            executeRemote(conn, "which scp", "sudo apt install openssh-server -y", logger);
-            LOGGER.log(Level.INFO,  "Copying remoting.jar to: " + tmpDir);
-            scp.put(Jenkins.get().getJnlpJars("remoting.jar").readFully(), "remoting.jar", tmpDir);
-            final Session javaOpens = conn.openSession();
-            String javaAddOpens = "java --add-opens java.base/java.util=ALL-UNNAMED";
-            javaOpens.execCommand(javaAddOpens);
-            javaOpens.close();
+            // java installed by the launcher before the marker existed would be taken for java of the image
+            if (capabilities == null && !YCImageCapabilities.record(imageKey, node.isFreshInstance(),
+                    bundle.getInfo().get("java"), initScript)) {
+                LOGGER.log(Level.FINE, "Not recording image " + imageKey + " from restarted instance " + node.getInstanceId());
+            }
+            node.setFreshInstance(false);
+            LOGGER.log(Level.INFO, "Bootstrap finished in " + (System.currentTimeMillis() - launchStart)
+                    + "ms, steps=" + bundle.getResults() + ", up to date: " + bundle.getSkipped());
             final String remoteFS = node.getRemoteFS();
             final String workDir = Util.fixEmptyAndTrim(remoteFS) != null ? remoteFS : tmpDir;
             String launchString = "java -jar " + tmpDir + "/remoting.jar -workDir " + workDir;
@@ -124,6 +115,8 @@ public class YCUnixComputerLauncher extends YCComputerLauncher{
                 }
             });
             successful = true;
+            LOGGER.log(Level.INFO, "Agent " + node.getInstanceId() + " launched in "
+                    + (System.currentTimeMillis() - launchStart) + "ms");
         } catch (Exception e) {
             LOGGER.log(Level.WARNING,  "Error via launch agent " + e.getMessage());
             throw new YandexClientException(e.getMessage());
@@ -136,46 +129,54 @@ public class YCUnixComputerLauncher extends YCComputerLauncher{
 
 
 
-    private boolean bootstrap(YCComputer computer, TaskListener listener, YandexTemplate template) throws Exception{
+    /**
+     * Connects to the instance and authenticates with the key of the cloud.
+     *
+     * @return authenticated connection, owned by the caller, or null if the instance can't be authenticated
+     */
+    private Connection bootstrap(YCComputer computer, TaskListener listener, YandexTemplate template) throws Exception{
         LOGGER.log(Level.INFO, "bootstrap()");
         Connection bootstrapConn = null;
-        try {
-            int tries = template.getParent().getAuthSleepMs() / bootstrapAuthSleepMs;
-            tries = tries == 0 ? 1 : tries;
+        long deadline = System.currentTimeMillis() + template.getParent().getAuthSleepMs();
+        int attempt = 0;
+        LOGGER.log(Level.INFO, "Getting keypair...");
+        YCPrivateKey ycPrivateKey = computer.getCloud().resolvePrivateKey();
+        if (ycPrivateKey == null){
+            LOGGER.log(Level.WARNING, "Could not retrieve a valid key pair.");
+            return null;
+        }
+        while (true) {
+            LOGGER.log(Level.INFO, String.format("Authenticating as " + ycPrivateKey.getUserName()));
             boolean isAuthenticated = false;
-            LOGGER.log(Level.INFO, "Getting keypair...");
-            YCPrivateKey ycPrivateKey = computer.getCloud().resolvePrivateKey();
-            if (ycPrivateKey == null){
-                LOGGER.log(Level.WARNING, "Could not retrieve a valid key pair.");
-                return false;
-            }
-            while (tries-- > 0) {
-                LOGGER.log(Level.INFO, String.format("Authenticating as " + ycPrivateKey.getUserName()));
-                try {
-                    bootstrapConn = connectToSsh(computer, listener);
-                    isAuthenticated = bootstrapConn.authenticateWithPublicKey(ycPrivateKey.getUserName(),
-                            ycPrivateKey.getPrivateKey().toCharArray(),
-                            "");
-                } catch (IOException e) {
-                    LOGGER.log(Level.WARNING, "Exception trying to authenticate", e);
+            try {
+                bootstrapConn = connectToSsh(computer, listener);
+                isAuthenticated = bootstrapConn.authenticateWithPublicKey(ycPrivateKey.getUserName(),
+                        ycPrivateKey.getPrivateKey().toCharArray(),
+                        "");
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Exception trying to authenticate", e);
+            } catch (Exception e) {
+                if (bootstrapConn != null) {
                     bootstrapConn.close();
                 }
-                if (isAuthenticated) {
-                    break;
-                }
-                LOGGER.log(Level.WARNING, "Authentication failed. Trying again...");
-                Thread.sleep(bootstrapAuthSleepMs);
+                throw e;
             }
-            if (!isAuthenticated) {
-                LOGGER.log(Level.WARNING, "Authentication failed, timed out after" + (tries * bootstrapAuthSleepMs / 1000) + "s with status " + computer.getStatus());
-                return false;
+            if (isAuthenticated) {
+                return bootstrapConn;
             }
-        } finally {
             if (bootstrapConn != null) {
                 bootstrapConn.close();
+                bootstrapConn = null;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                LOGGER.log(Level.WARNING, "Authentication failed, timed out after " + (template.getParent().getAuthSleepMs() / 1000) + "s with status " + computer.getStatus());
+                return null;
             }
+            // the key is usually installed by cloud-init shortly after sshd starts
+            long delay = AUTH_BACKOFF.delay(attempt++);
+            LOGGER.log(Level.WARNING, "Authentication failed. Trying again in " + delay + "ms...");
+            Thread.sleep(delay);
         }
-        return true;
     }
 
 
@@ -183,6 +184,7 @@ public class YCUnixComputerLauncher extends YCComputerLauncher{
         final YCAbstractSlave node = computer.getNode();
         final long timeout = node == null ? 0L : node.getLaunchTimeoutInMillis();
         final long startTime = System.currentTimeMillis();
+        int attempt = 0;
         while (true) {
             try {
                 long waitTime = System.currentTimeMillis() - startTime;
@@ -192,24 +194,11 @@ public class YCUnixComputerLauncher extends YCComputerLauncher{
                             + (timeout / 1000) + ")");
                 }
                 if (computer.getNode() == null || computer.getInstanceId() == null) {
-                    // getInstanceId() on EC2SpotSlave can return null if the spot request doesn't yet know
-                    // the instance id that it is starting. Continue to wait until the instanceId is set.
-                    LOGGER.log(Level.INFO,  "empty instanceId for Spot Slave.");
-                    throw new IOException("goto sleep");
-                }
-
-                String host = YCHostAddressProvider.getPrivateIpAddress(computer);
-                if (StringUtils.isBlank(host)) {
-                    LOGGER.log(Level.WARNING,  "Empty host, your host is most likely waiting for an ip address.");
-                    throw new IOException("goto sleep");
-                }
-
-                if ("0.0.0.0".equals(host)) {
-                    LOGGER.log(Level.WARNING,  "Invalid host 0.0.0.0, your host is most likely waiting for an ip address.");
-                    throw new IOException("goto sleep");
+                    throw new Exception("Node of " + computer.getName() + " was removed while waiting for ssh");
                 }
 
                 int port = computer.getSshPort();
+                String host = awaitSsh(computer, port, timeout > 0 ? timeout - waitTime : 0);
                 int slaveConnectTimeout = 10000;
                 LOGGER.log(Level.INFO,  "Connecting to " + host + " on port " + port + ", with timeout " + slaveConnectTimeout
                         + ".");
@@ -230,6 +219,7 @@ public class YCUnixComputerLauncher extends YCComputerLauncher{
 
                 conn.connect(new ServerHostKeyVerifierImpl(computer, listener), slaveConnectTimeout, slaveConnectTimeout);
                 LOGGER.log(Level.INFO,  "Connected via SSH.");
+                YCProvisioningMetrics.reached(computer.getName(), YCProvisioningMetrics.Phase.SSH_REACHABLE);
                 return conn; // successfully connected
             } catch (IOException e) {
                 // keep retrying until SSH comes up
@@ -240,40 +230,47 @@ public class YCUnixComputerLauncher extends YCComputerLauncher{
                 if (computer.isOffline() && StringUtils.isNotBlank(computer.getOfflineCauseReason())) {
                     throw new Exception("The connection couldn't be established and the computer is now offline", e);
                 } else {
-                    LOGGER.log(Level.INFO, "Waiting for SSH to come up. Sleeping 5.");
-                    Thread.sleep(5000);
+                    long delay = CONNECT_BACKOFF.delay(attempt++);
+                    LOGGER.log(Level.INFO, "Waiting for SSH to come up. Sleeping " + delay + "ms.");
+                    Thread.sleep(delay);
                 }
             }
         }
     }
 
-    protected String buildUpCommand(String command) {
-        return "sudo " + command;
-    }
-
-    private int waitCompletion(Session session) throws InterruptedException {
-        // I noticed that the exit status delivery often gets delayed. Wait up
-        // to 1 sec.
-        for (int i = 0; i < 10; i++) {
-            Integer r = session.getExitStatus();
-            if (r != null)
-                return r;
-            Thread.sleep(100);
+    /**
+     * Waits for the SSH server of the instance to come up.
+     *
+     * @return address of the instance
+     */
+    private String awaitSsh(YCComputer computer, int port, long timeoutMs) throws Exception {
+        // the address is looked up here, the prober thread only waits for the banner
+        String host = YCHostAddressProvider.getPrivateIpAddress(computer);
+        if (StringUtils.isBlank(host) || "0.0.0.0".equals(host)) {
+            // the address is assigned some time after the instance moves to RUNNING
+            throw new IOException("Empty host, your host is most likely waiting for an ip address.");
         }
-        return -1;
-    }
-
-    private boolean executeRemote(Connection conn, String checkCommand, String command, PrintStream logger)
-            throws IOException, InterruptedException {
-        LOGGER.log(Level.INFO, "Verifying: " + checkCommand);
-        if (conn.exec(checkCommand, logger) != 0) {
-            LOGGER.log(Level.INFO, "Installing: " + command);
-            if (conn.exec(command, logger) != 0) {
-                LOGGER.log(Level.WARNING,  "Failed to install: " + command);
-                return false;
+        if (Jenkins.get().proxy != null) {
+            // the port can't be probed directly, the ssh connect through the proxy is retried instead
+            return host;
+        }
+        CompletableFuture<String> ready = YCSshProber.get().awaitSsh(host, port, timeoutMs);
+        try {
+            return ready.get();
+        } catch (InterruptedException e) {
+            ready.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                throw new Exception("Timed out after " + (timeoutMs / 1000)
+                        + " seconds of waiting for ssh to become available", e.getCause());
             }
+            throw new IOException(e.getCause());
         }
-        return true;
+    }
+
+    protected String buildUpCommand(String command) {
+        return "sudo " + command;
     }
 
     private static class ServerHostKeyVerifierImpl implements ServerHostKeyVerifier {
@@ -0,0 +1,133 @@
+package io.jenkins.plugins.yc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.protobuf.TextFormat;
+import com.google.protobuf.util.JsonFormat;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import hudson.util.FormValidation;
+import io.jenkins.plugins.yc.exception.YandexClientException;
+import yandex.cloud.api.compute.v1.InstanceServiceOuterClass;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Init vm template of a {@link YandexTemplate} parsed once into an immutable create request.
+ * <p>
+ * The template may be written in protobuf text format, JSON or YAML. The format is detected when the template is
+ * parsed, and a template that can't be parsed keeps the error instead of failing every provisioning attempt
+ * with the same exception.
+ */
+public final class YCVmTemplate {
+
+    private static final Logger LOGGER = Logger.getLogger(YCVmTemplate.class.getName());
+
+    /* Mappers are thread safe once configured, creating them is not cheap. */
+    private static final ObjectMapper YAML_READER = new ObjectMapper(new YAMLFactory());
+
+    private static final ObjectMapper JSON_WRITER = new ObjectMapper();
+
+    private static final JsonFormat.Parser JSON_PARSER = JsonFormat.parser();
+
+    public enum Format {PROTOBUF, JSON, YAML}
+
+    private final String source;
+
+    private final Format format;
+
+    private final InstanceServiceOuterClass.CreateInstanceRequest prototype;
+
+    private final String error;
+
+    private YCVmTemplate(String source, Format format, InstanceServiceOuterClass.CreateInstanceRequest prototype, String error) {
+        this.source = source;
+        this.format = format;
+        this.prototype = prototype;
+        this.error = error;
+    }
+
+    /**
+     * @param source - init vm template in protobuf text format, JSON or YAML
+     * @return parsed template, check {@link #isValid()} before use
+     */
+    @NonNull
+    public static YCVmTemplate parse(@CheckForNull String source) {
+        String text = Util.fixNull(source);
+        if (text.trim().isEmpty()) {
+            return new YCVmTemplate(text, null, null, "Init VM template is empty");
+        }
+        InstanceServiceOuterClass.CreateInstanceRequest.Builder builder = InstanceServiceOuterClass.CreateInstanceRequest.newBuilder();
+        Format format;
+        try {
+            if (text.trim().startsWith("{")) {
+                // protobuf text format can't start with a brace, go straight to JSON
+                JSON_PARSER.merge(text, builder);
+                format = Format.JSON;
+            } else if (mergeText(text, builder)) {
+                format = Format.PROTOBUF;
+            } else {
+                builder.clear();
+                JSON_PARSER.merge(JSON_WRITER.writeValueAsString(YAML_READER.readValue(text, Object.class)), builder);
+                format = Format.YAML;
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Invalid init vm template", e);
+            return new YCVmTemplate(text, null, null, "Invalid protobuf format: " + e.getMessage());
+        }
+        LOGGER.log(Level.FINE, "Init vm template parsed, {0} format", format);
+        return new YCVmTemplate(text, format, builder.build(), null);
+    }
+
+    private static boolean mergeText(String text, InstanceServiceOuterClass.CreateInstanceRequest.Builder builder) {
+        try {
+            TextFormat.merge(text, builder);
+            return true;
+        } catch (TextFormat.ParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param source - template text to compare with
+     * @return true if this template was parsed from the same text
+     */
+    public boolean isParsedFrom(@CheckForNull String source) {
+        return this.source.equals(Util.fixNull(source));
+    }
+
+    public boolean isValid() {
+        return prototype != null;
+    }
+
+    @CheckForNull
+    public Format getFormat() {
+        return format;
+    }
+
+    @CheckForNull
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return parsed create request, shared by every caller, use {@code toBuilder()} to change it
+     * @throws YandexClientException if the template is not valid
+     */
+    @NonNull
+    public InstanceServiceOuterClass.CreateInstanceRequest getPrototype() {
+        if (prototype == null) {
+            throw new YandexClientException(error);
+        }
+        return prototype;
+    }
+
+    public FormValidation toFormValidation() {
+        if (prototype == null) {
+            return FormValidation.error(error);
+        }
+        return FormValidation.ok(format + " format\n" + prototype);
+    }
+}
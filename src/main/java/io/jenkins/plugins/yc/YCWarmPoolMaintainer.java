@@ -0,0 +1,255 @@
+package io.jenkins.plugins.yc;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.NodeProvisioner;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the warm pool of every template filled: a number of booted, connected and idle agents which take builds
+ * as soon as they are queued, without waiting for a new VM.
+ * <p>
+ * Idle agents of the pool are handed out by the build queue like any other idle agent. Warm agents which are still
+ * being created are handed out by {@link YandexCloud#provision} through {@link #claim}, so a provisioning round
+ * never creates a VM while a warm one is on its way.
+ */
+@Extension
+public class YCWarmPoolMaintainer extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(YCWarmPoolMaintainer.class.getName());
+
+    private static final long RECURRENCE_PERIOD = Long.getLong(YCWarmPoolMaintainer.class.getName() + ".recurrencePeriodMs",
+            TimeUnit.MINUTES.toMillis(1));
+
+    /* Warm agents being created, by template. */
+    private static final ConcurrentMap<String, Queue<WarmNode>> CREATING = new ConcurrentHashMap<>();
+
+    public YCWarmPoolMaintainer() {
+        super("Yandex Cloud warm pool maintainer");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        Jenkins j = Jenkins.get();
+        if (j.isQuietingDown() || j.isTerminating()) {
+            return;
+        }
+        Set<String> templates = new HashSet<>();
+        for (YandexCloud cloud : j.clouds.getAll(YandexCloud.class)) {
+            for (YandexTemplate t : cloud.getTemplates()) {
+                templates.add(key(t));
+                try {
+                    maintain(cloud, t);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, t + ". Failed to maintain warm pool", e);
+                }
+            }
+        }
+        // agents still being created for removed templates are added to Jenkins and idle out like any other
+        CREATING.keySet().retainAll(templates);
+    }
+
+    private void maintain(YandexCloud cloud, YandexTemplate t) throws Exception {
+        if (t.getWarmPoolMinReady() <= 0) {
+            return;
+        }
+        List<YCAbstractSlave> ready = getReadyAgents(t);
+        int pending = getPendingAgents(t);
+        int maxReady = t.getWarmPoolMaxReady();
+        if (ready.size() > maxReady) {
+            int surplus = ready.size() - maxReady;
+            LOGGER.log(Level.INFO, "{0}. {1} idle agents exceed the warm pool, releasing {2}",
+                    new Object[]{t, ready.size(), surplus});
+            for (YCAbstractSlave slave : ready.subList(0, surplus)) {
+                slave.idleTimeout();
+            }
+            return;
+        }
+        int missing = missing(t.getWarmPoolMinReady(), ready.size(), pending, t.getWarmPoolRefillRate());
+        if (missing <= 0) {
+            return;
+        }
+        LOGGER.log(Level.INFO, "{0}. Warm pool has {1} ready and {2} pending agents, refilling {3}",
+                new Object[]{t, ready.size(), pending, missing});
+        provisionAhead(cloud, t, missing);
+    }
+
+    /**
+     * @param minReady - minimum number of ready agents
+     * @param ready - agents ready now
+     * @param pending - agents connecting or being created
+     * @param refillRate - maximum number of agents to create at once, 0 for no limit
+     * @return number of agents to create
+     */
+    static int missing(int minReady, int ready, int pending, int refillRate) {
+        int missing = Math.max(minReady - ready - pending, 0);
+        return refillRate > 0 ? Math.min(missing, refillRate) : missing;
+    }
+
+    /**
+     * Provisions agents before the build queue asks for them. Until they are running they can be claimed by
+     * {@link YandexCloud#provision}, after that they are added to Jenkins as idle agents.
+     *
+     * @param cloud - cloud of the template
+     * @param t - template
+     * @param number - number of agents
+     */
+    static void provisionAhead(YandexCloud cloud, YandexTemplate t, int number) throws Exception {
+        Queue<WarmNode> creating = creating(t);
+        for (CompletableFuture<YCAbstractSlave> slave : cloud.getNewOrExistingAvailableSlave(t, number, false)) {
+            WarmNode warmNode = new WarmNode(cloud.awaitRunning(t, slave));
+            creating.add(warmNode);
+            warmNode.node.whenComplete((node, e) -> {
+                creating.remove(warmNode);
+                if (e != null) {
+                    LOGGER.log(Level.WARNING, t + ". Failed to create agent ahead of demand", e);
+                } else if (node != null && warmNode.claimed.compareAndSet(false, true)) {
+                    try {
+                        Jenkins.get().addNode(node);
+                    } catch (IOException ioe) {
+                        LOGGER.log(Level.WARNING, t + ". Failed to add warm agent " + node.getNodeName(), ioe);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Hands out warm agents which are still being created, the caller becomes responsible for adding them to Jenkins.
+     *
+     * @param t - template
+     * @param number - maximum number of agents
+     * @return planned nodes of the claimed agents
+     */
+    public static List<NodeProvisioner.PlannedNode> claim(YandexTemplate t, int number) {
+        List<NodeProvisioner.PlannedNode> claimed = new ArrayList<>();
+        Iterator<WarmNode> it = creating(t).iterator();
+        while (claimed.size() < number && it.hasNext()) {
+            WarmNode warmNode = it.next();
+            if (warmNode.claimed.compareAndSet(false, true)) {
+                it.remove();
+                claimed.add(new NodeProvisioner.PlannedNode(t.getParent().getDisplayName(), warmNode.node, t.getNumExecutors()));
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * @param t - template
+     * @return online agents of the template which are idle and accept builds
+     */
+    public static List<YCAbstractSlave> getReadyAgents(YandexTemplate t) {
+        List<YCAbstractSlave> result = new ArrayList<>();
+        for (YCAbstractSlave slave : agents(t)) {
+            Computer c = slave.toComputer();
+            if (c != null && c.isOnline() && c.isIdle() && slave.isAcceptingTasks()) {
+                result.add(slave);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the idle agent has to be kept to fill the warm pool of its template. Agents connecting or being
+     * created count toward the pool, so an agent is released once its replacement is on its way.
+     *
+     * @param slave - idle agent
+     * @return true if the agent must not be released on idle timeout
+     */
+    public static boolean isRetained(YCAbstractSlave slave) {
+        YandexCloud cloud = slave.getCloud();
+        YandexTemplate t = cloud == null ? null : cloud.getTemplate(slave.getTemplateDescription());
+        if (t == null || t.getWarmPoolMinReady() <= 0) {
+            return false;
+        }
+        return isRetained(slave, getReadyAgents(t), t.getWarmPoolMinReady(), getPendingAgents(t));
+    }
+
+    /**
+     * Keeps the first ready agents by name, so agents checked one after another agree on which of them stay.
+     *
+     * @param slave - idle agent
+     * @param ready - ready agents of the template
+     * @param minReady - minimum number of ready agents
+     * @param pending - agents connecting or being created
+     * @return true if the agent must not be released on idle timeout
+     */
+    static boolean isRetained(YCAbstractSlave slave, List<YCAbstractSlave> ready, int minReady, int pending) {
+        int keep = minReady - pending;
+        if (keep <= 0) {
+            return false;
+        }
+        int rank = 0;
+        for (YCAbstractSlave other : ready) {
+            if (other != slave && other.getNodeName().compareTo(slave.getNodeName()) < 0) {
+                rank++;
+            }
+        }
+        return rank < keep;
+    }
+
+    private static int getPendingAgents(YandexTemplate t) {
+        return getConnectingAgents(t) + creating(t).size();
+    }
+
+    private static int getConnectingAgents(YandexTemplate t) {
+        int count = 0;
+        for (YCAbstractSlave slave : agents(t)) {
+            Computer c = slave.toComputer();
+            if ((c == null || c.isConnecting()) && slave.isAcceptingTasks()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<YCAbstractSlave> agents(YandexTemplate t) {
+        return YCNodeIndex.getNodes(t.getParent().name, t.getDescription());
+    }
+
+    private static Queue<WarmNode> creating(YandexTemplate t) {
+        return CREATING.computeIfAbsent(key(t), k -> new ConcurrentLinkedQueue<>());
+    }
+
+    private static String key(YandexTemplate t) {
+        return t.getParent().name + "/" + t.getDescription();
+    }
+
+    private static final class WarmNode {
+        private final CompletableFuture<Node> node;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        WarmNode(CompletableFuture<Node> node) {
+            this.node = node;
+        }
+    }
+}
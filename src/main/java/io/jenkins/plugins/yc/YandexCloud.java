@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -57,17 +58,45 @@ public class YandexCloud extends AbstractCloud {
             return Collections.emptyList();
         }
         for (YandexTemplate t : matchingTemplates) {
+            if (!t.getCircuitBreaker().isAvailable()) {
+                LOGGER.log(Level.FINE, "{0}. Skipped, create requests are failing", t);
+                continue;
+            }
             try {
                 LOGGER.log(Level.INFO, "{0}. Attempting to provision slave needed by excess workload of " + excessWorkload + " units", t);
-                int number = Math.max(excessWorkload / t.getNumExecutors(), 1);
-                final YCAbstractSlave slave = getNewOrExistingAvailableSlave(t, number, false);
+                int numExecutors = Math.max(t.getNumExecutors(), 1);
+                int number = Math.max((excessWorkload + numExecutors - 1) / numExecutors, 1);
+                List<NodeProvisioner.PlannedNode> warmNodes = YCWarmPoolMaintainer.claim(t, number);
+                if (!warmNodes.isEmpty()) {
+                    LOGGER.log(Level.INFO, "{0}. Handing out {1} warm agents", new Object[]{t, warmNodes.size()});
+                    plannedNodes.addAll(warmNodes);
+                    excessWorkload -= warmNodes.size() * numExecutors;
+                    number -= warmNodes.size();
+                    if (excessWorkload <= 0 || number <= 0) {
+                        break;
+                    }
+                }
+                final List<CompletableFuture<YCAbstractSlave>> slaves = getNewOrExistingAvailableSlave(t, number, false);
 
-                if (slave == null) {
+                if (slaves.isEmpty()) {
                     LOGGER.log(Level.WARNING, "Can't raise nodes for " + t);
                     continue;
                 }
-                plannedNodes.add(createPlannedNode(t, slave));
-                excessWorkload -= t.getNumExecutors();
+                for (CompletableFuture<YCAbstractSlave> slave : slaves) {
+                    slave.whenComplete((s, e) -> {
+                        if (e != null) {
+                            LOGGER.log(Level.WARNING, t + ". Exception during provisioning", e);
+                            if (YCComputeClient.isRetryable(e)) {
+                                // out of quota or capacity for now, the build waits for the next provisioning round
+                                return;
+                            }
+                            Queue.Item item = CloudUtil.getItem(label.toString());
+                            CloudUtil.cancelItem(item, label.toString());
+                        }
+                    });
+                    plannedNodes.add(createPlannedNode(t, slave));
+                }
+                excessWorkload -= slaves.size() * numExecutors;
                 LOGGER.log(Level.INFO, "{0}. Attempting provision finished, excess workload: " + excessWorkload, t);
                 if (excessWorkload <= 0) {
                     break;
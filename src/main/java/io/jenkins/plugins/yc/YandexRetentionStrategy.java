@@ -1,5 +1,6 @@
 package io.jenkins.plugins.yc;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.init.InitMilestone;
 import hudson.model.Executor;
@@ -8,24 +9,30 @@ import hudson.model.Queue;
 import hudson.slaves.RetentionStrategy;
 import jenkins.model.Jenkins;
 import org.kohsuke.stapler.DataBoundConstructor;
+import yandex.cloud.api.compute.v1.InstanceOuterClass;
 
 import java.time.Clock;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class YandexRetentionStrategy extends RetentionStrategy<YCComputer> implements ExecutorListener {
 
     private static final Logger LOGGER = Logger.getLogger(YandexRetentionStrategy.class.getName());
-    private transient ReentrantLock checkLock;
     private final int idleTerminationMinutes;
 
     private static final int STARTUP_TIME_DEFAULT_VALUE = 30;
 
+    /* With per-hour billing, agents are scaled down this long before the next hour starts. */
+    private static final long HOURLY_MARGIN = Long.getLong(YandexRetentionStrategy.class.getName() + ".hourlyMarginMs",
+            TimeUnit.MINUTES.toMillis(2));
+
     private transient Clock clock;
-    private long nextCheckAfter = -1;
+
+    /* Read from configurations saved before the checks moved to YCIdleSweeper, no longer used. */
+    @Deprecated
+    private transient long nextCheckAfter;
     public static final boolean DISABLED = Boolean.getBoolean(YandexRetentionStrategy.class.getName() + ".disabled");
 
     @DataBoundConstructor
@@ -94,103 +101,104 @@ public class YandexRetentionStrategy extends RetentionStrategy<YCComputer> imple
         c.connect(false);
     }
 
+    /**
+     * Agents are checked by {@link YCIdleSweeper} from one instance listing per cloud, there is nothing to call
+     * the cloud for here.
+     */
     @Override
     public long check(@NonNull YCComputer c) {
-        if (!checkLock.tryLock()) {
-            return 1;
-        } else {
-            try {
-                long currentTime = this.clock.millis();
-                if (currentTime > nextCheckAfter) {
-                    long intervalMinutes = internalCheck(c);
-                    nextCheckAfter = currentTime + TimeUnit.MINUTES.toMillis(intervalMinutes);
-                    return intervalMinutes;
-                } else {
-                    return 1;
-                }
-            } finally {
-                checkLock.unlock();
-            }
-        }
+        return 1;
     }
 
+    enum Action {NONE, LAUNCH_TIMEOUT, IDLE_TIMEOUT}
 
-    private long internalCheck(YCComputer computer) {
+    /**
+     * Decides what to do with the agent.
+     *
+     * @param computer - agent computer
+     * @param instance - instance of the agent from the instance listing, null if it is not listed
+     * @return action the sweeper should take
+     */
+    Action evaluate(YCComputer computer, @CheckForNull InstanceOuterClass.Instance instance) {
+        computer.setScaleDownPlan(null);
         // If we've been told never to terminate, or node is null(deleted), no checks to perform
-        if (idleTerminationMinutes == 0 || computer.getNode() == null) {
-            return 1;
+        if (idleTerminationMinutes == 0 || computer.getNode() == null || DISABLED || !computer.isIdle()) {
+            return Action.NONE;
         }
-
-        if (computer.isIdle() && !DISABLED) {
-            final long uptime;
-            String state;
-            try {
-                state = computer.getStatus();
-                uptime = computer.getUptime();
-            } catch (Exception e) {
-                LOGGER.fine("Exception while checking host uptime for " + computer.getName()
-                        + ", will retry next check. Exception: " + e);
-                return 1;
-            }
-
-            //on rare occasions, YC may return fault instance which shows running in Yandex cloud console but can not be connected.
-            //need terminate such fault instance.
-            //an instance may also fail running user data scripts and need to be cleaned up.
-            if (computer.isOffline()) {
-                if (computer.isConnecting()) {
-                    LOGGER.log(Level.INFO, "Computer {0} connecting and still offline, will check if the launch timeout has expired", computer.getInstanceId());
-
-                    YCAbstractSlave node = computer.getNode();
-                    if (Objects.isNull(node)) {
-                        return 1;
-                    }
-                    long launchTimeout = node.getLaunchTimeoutInMillis();
-                    if (launchTimeout > 0 && uptime > launchTimeout) {
-                        // Computer is offline and startup time has expired
-                        LOGGER.log(Level.INFO, "Startup timeout of " + computer.getName() + " after "
-                                + uptime +
-                                " milliseconds (timeout: " + launchTimeout + " milliseconds), instance status: " + state);
-                        node.launchTimeout();
-                    }
-                    return 1;
+        if (instance == null) {
+            LOGGER.fine("Instance of " + computer.getName() + " is not listed, will retry next check");
+            return Action.NONE;
+        }
+        final long now = this.clock.millis();
+        final long uptime = YCComputer.getUptime(instance, now);
+        final String state = instance.getStatus().name();
+
+        //on rare occasions, YC may return fault instance which shows running in Yandex cloud console but can not be connected.
+        //need terminate such fault instance.
+        //an instance may also fail running user data scripts and need to be cleaned up.
+        if (computer.isOffline()) {
+            // inbound agents are not connecting from the controller side while the instance boots
+            if (computer.isConnecting() || !computer.isLaunchSupported()) {
+                LOGGER.log(Level.FINE, "Computer {0} connecting and still offline, will check if the launch timeout has expired", computer.getInstanceId());
+
+                YCAbstractSlave node = computer.getNode();
+                if (Objects.isNull(node)) {
+                    return Action.NONE;
                 }
-                else {
-                    LOGGER.log(Level.FINE, "Computer {0} offline but not connecting, will check if it should be terminated because of the idle time configured", computer.getInstanceId());
+                long launchTimeout = node.getLaunchTimeoutInMillis();
+                if (launchTimeout > 0 && uptime > launchTimeout) {
+                    // Computer is offline and startup time has expired
+                    LOGGER.log(Level.INFO, "Startup timeout of " + computer.getName() + " after "
+                            + uptime +
+                            " milliseconds (timeout: " + launchTimeout + " milliseconds), instance status: " + state);
+                    return Action.LAUNCH_TIMEOUT;
                 }
+                return Action.NONE;
             }
-            final long idleMilliseconds = this.clock.millis() - computer.getIdleStartMilliseconds();
-            if (idleTerminationMinutes > 0) {
-                if (idleMilliseconds > TimeUnit.MINUTES.toMillis(idleTerminationMinutes)) {
-                    LOGGER.log(Level.INFO, "Idle timeout of " + computer.getName() + " after "
-                            + TimeUnit.MILLISECONDS.toMinutes(idleMilliseconds) +
-                            " idle minutes, instance status: " + state);
-                    YCAbstractSlave slaveNode = computer.getNode();
-                    if (slaveNode != null) {
-                        slaveNode.idleTimeout();
-                    }
-                }
-            }else {
-                final int oneHourSeconds = (int) TimeUnit.SECONDS.convert(1, TimeUnit.HOURS);
-                final int freeSecondsLeft = oneHourSeconds
-                        - (int) (TimeUnit.SECONDS.convert(uptime, TimeUnit.MILLISECONDS) % oneHourSeconds);
-                if (freeSecondsLeft <= TimeUnit.MINUTES.toSeconds(Math.abs(idleTerminationMinutes))) {
-                    LOGGER.log(Level.INFO, "Idle timeout of " + computer.getName() + " after "
-                            + TimeUnit.MILLISECONDS.toMinutes(idleMilliseconds) + " idle minutes, with "
-                            + TimeUnit.SECONDS.toMinutes(freeSecondsLeft)
-                            + " minutes remaining in billing period");
-                    YCAbstractSlave slaveNode = computer.getNode();
-                    if (slaveNode != null) {
-                        slaveNode.idleTimeout();
-                    }
-                }
+            else {
+                LOGGER.log(Level.FINE, "Computer {0} offline but not connecting, will check if it should be terminated because of the idle time configured", computer.getInstanceId());
             }
         }
+        if ("STOPPING".equals(state) || "STOPPED".equals(state)) {
+            // already stopped on a previous idle timeout
+            return Action.NONE;
+        }
+        YCAbstractSlave idleNode = computer.getNode();
+        if (idleNode != null && YCWarmPoolMaintainer.isRetained(idleNode)) {
+            LOGGER.log(Level.FINE, "Computer {0} is kept idle in the warm pool", computer.getInstanceId());
+            return Action.NONE;
+        }
+        final long idleMilliseconds = now - computer.getIdleStartMilliseconds();
+        YCScaleDownPlan plan = plan(computer, uptime, now);
+        computer.setScaleDownPlan(plan);
+        if (plan.isDue(now)) {
+            LOGGER.log(Level.INFO, "Idle timeout of " + computer.getName() + " after "
+                    + TimeUnit.MILLISECONDS.toMinutes(idleMilliseconds) + " idle minutes, instance status: " + state
+                    + ", " + plan.getReason());
+            return Action.IDLE_TIMEOUT;
+        }
+        return Action.NONE;
+    }
 
-        return 1;
+    /**
+     * Negative idle termination minutes keep the original meaning: scale down within that many minutes of the
+     * end of a paid hour.
+     */
+    private YCScaleDownPlan plan(YCComputer computer, long uptime, long now) {
+        YandexTemplate template = computer.getSlaveTemplate();
+        YCBillingModel billingModel = YCBillingModel.PER_SECOND;
+        if (idleTerminationMinutes < 0) {
+            billingModel = YCBillingModel.PER_HOUR;
+        } else if (template != null) {
+            billingModel = template.getBillingModel();
+        }
+        long idleTimeout = TimeUnit.MINUTES.toMillis(Math.max(idleTerminationMinutes, 0));
+        long hourlyMargin = idleTerminationMinutes < 0 ? TimeUnit.MINUTES.toMillis(-idleTerminationMinutes) : HOURLY_MARGIN;
+        return YCScaleDownPlan.plan(billingModel, now - uptime, computer.getIdleStartMilliseconds(), idleTimeout,
+                hourlyMargin, YCIdleSweeper.getProvisionTime(computer), now);
     }
 
     protected Object readResolve() {
-        checkLock = new ReentrantLock(false);
         clock = Clock.systemUTC();
         return this;
     }
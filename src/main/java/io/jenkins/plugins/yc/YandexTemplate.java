@@ -1,10 +1,6 @@
 package io.jenkins.plugins.yc;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import com.google.protobuf.InvalidProtocolBufferException;
-import com.google.protobuf.TextFormat;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.Util;
@@ -14,17 +10,18 @@ import hudson.slaves.NodeProperty;
 import hudson.slaves.NodePropertyDescriptor;
 import hudson.util.DescribableList;
 import hudson.util.FormValidation;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
-import io.jenkins.plugins.yc.exception.LoginFailed;
 import io.jenkins.plugins.yc.exception.YandexClientException;
+import io.jenkins.plugins.yc.util.CapacityReservation;
+import io.jenkins.plugins.yc.util.CircuitBreaker;
 import io.jenkins.plugins.yc.util.YCAgentConfig;
 import io.jenkins.plugins.yc.util.YCAgentFactory;
 import jenkins.model.Jenkins;
-import jenkins.slaves.iterators.api.NodeIterator;
+import jenkins.slaves.JnlpAgentReceiver;
 import lombok.Getter;
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 import org.kohsuke.stapler.verb.POST;
@@ -33,15 +30,16 @@ import yandex.cloud.api.compute.v1.InstanceOuterClass;
 import yandex.cloud.api.compute.v1.InstanceServiceGrpc;
 import yandex.cloud.api.compute.v1.InstanceServiceOuterClass;
 import yandex.cloud.api.operation.OperationOuterClass;
-import yandex.cloud.sdk.ChannelFactory;
-import yandex.cloud.sdk.ServiceFactory;
-import yandex.cloud.sdk.auth.provider.CredentialProvider;
-import com.google.protobuf.util.JsonFormat;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -85,20 +83,107 @@ public class YandexTemplate implements Describable<YandexTemplate> {
     @Getter
     private final String tmpDir;
 
+    /* Instance label with the vm name of the template the instance was created from. */
+    public static final String TEMPLATE_LABEL = "jenkins-yc-template";
+
+    private static final int NAME_SUFFIX_LENGTH = 8;
+
+    private static final String NAME_SUFFIX_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+    /* Instance name is limited to 63 characters, one is taken by the dash before the suffix. */
+    static final int MAX_NAME_PREFIX_LENGTH = 63 - NAME_SUFFIX_LENGTH - 1;
+
+    private static final long RESERVATION_EXPIRATION = TimeUnit.MINUTES.toMillis(
+            Long.getLong(YandexTemplate.class.getName() + ".reservationExpirationMinutes", 10));
+
+    private static final int BREAKER_WINDOW = Integer.getInteger(YandexTemplate.class.getName() + ".circuitBreakerWindow", 10);
+
+    private static final int BREAKER_MINIMUM_CALLS = Integer.getInteger(YandexTemplate.class.getName() + ".circuitBreakerMinimumCalls", 5);
+
+    private static final int BREAKER_FAILURE_RATE = Integer.getInteger(YandexTemplate.class.getName() + ".circuitBreakerFailureRatePercent", 50);
+
+    private static final long BREAKER_OPEN = TimeUnit.SECONDS.toMillis(
+            Long.getLong(YandexTemplate.class.getName() + ".circuitBreakerOpenSeconds", 60));
+
+    /* Create requests by cloud, zone and template, kept when the cloud is reconfigured. */
+    private static final ConcurrentMap<String, CircuitBreaker> CIRCUIT_BREAKERS = new ConcurrentHashMap<>();
+
     private static final String userData = "#cloud-config%nusers:%n  - name: %s%n    sudo: ['ALL=(ALL) NOPASSWD:ALL']%n    ssh-authorized-keys:%n      - %s";
 
+    static final String JENKINS_URL_METADATA = "jenkins-url";
+    static final String AGENT_NAME_METADATA = "jenkins-agent-name";
+    static final String AGENT_SECRET_METADATA = "jenkins-agent-secret";
+
+    /*
+     * Inbound agents are started by a systemd unit, so a stopped instance reconnects when it is started again.
+     * The unit reads the controller url, the agent name and the secret from the instance metadata.
+     */
+    private static final String inboundUserData = "#cloud-config%nusers:%n  - name: %s%n    sudo: ['ALL=(ALL) NOPASSWD:ALL']%n    ssh-authorized-keys:%n      - %s%n"
+            + "write_files:%n"
+            + "  - path: /opt/jenkins-agent/run.sh%n"
+            + "    permissions: '0755'%n"
+            + "    content: |%n"
+            + "      #!/bin/sh%n"
+            + "      AGENT_USER=%s%n"
+            + "      WORK_DIR='%s'%n"
+            + "      md() { curl -sf -H Metadata-Flavor:Google \"http://169.254.169.254/computeMetadata/v1/instance/attributes/$1\"; }%n"
+            + "      URL=$(md " + JENKINS_URL_METADATA + ") || exit 1%n"
+            + "      command -v java >/dev/null || { apt-get update && apt-get install -y default-jre-headless; } || exit 1%n"
+            + "      mkdir -p \"$WORK_DIR\" /opt/jenkins-agent && chown \"$AGENT_USER\" \"$WORK_DIR\" || exit 1%n"
+            + "      curl -sf -o /opt/jenkins-agent/agent.jar \"${URL}jnlpJars/agent.jar\" || exit 1%n"
+            + "      (umask 077; md " + AGENT_SECRET_METADATA + " > /opt/jenkins-agent/secret) && chown \"$AGENT_USER\" /opt/jenkins-agent/secret || exit 1%n"
+            + "      exec runuser -u \"$AGENT_USER\" -- java -jar /opt/jenkins-agent/agent.jar -url \"$URL\" -webSocket -name \"$(md " + AGENT_NAME_METADATA + ")\" -secret @/opt/jenkins-agent/secret -workDir \"$WORK_DIR\"%n"
+            + "  - path: /etc/systemd/system/jenkins-agent.service%n"
+            + "    content: |%n"
+            + "      [Unit]%n"
+            + "      Description=Jenkins inbound agent%n"
+            + "      Wants=network-online.target%n"
+            + "      After=network-online.target%n"
+            + "      [Service]%n"
+            + "      ExecStart=/opt/jenkins-agent/run.sh%n"
+            + "      Restart=always%n"
+            + "      RestartSec=10%n"
+            + "      [Install]%n"
+            + "      WantedBy=multi-user.target%n"
+            + "runcmd:%n"
+            + "  - [ systemctl, daemon-reload ]%n"
+            + "  - [ systemctl, enable, --now, jenkins-agent.service ]%n";
+
     private final List<YCTag> tags;
 
     @Getter
     private DescribableList<NodeProperty<?>, NodePropertyDescriptor> nodeProperties;
 
-    private transient Set<LabelAtom> labelSet;
+    @Getter
+    private int instanceCap;
 
-    public enum ProvisionOptions {ALLOW_CREATE, FORCE_CREATE}
+    @Getter
+    private boolean inbound;
 
     @Getter
-    private transient CredentialProvider provider;
-    private transient InstanceServiceGrpc.InstanceServiceBlockingStub instanceServiceBlockingStub;
+    private int warmPoolMinReady;
+
+    private int warmPoolMaxReady;
+
+    @Getter
+    private int warmPoolRefillRate;
+
+    private YCBillingModel billingModel;
+
+    @Getter
+    private boolean preemptible;
+
+    @Getter
+    private boolean preemptibleFallback = true;
+
+    private transient Set<LabelAtom> labelSet;
+
+    private transient volatile YCVmTemplate vmTemplate;
+
+    /* Instances requested whose nodes are not added yet, counted against the instance cap until listed. */
+    private transient CapacityReservation reservations;
+
+    public enum ProvisionOptions {ALLOW_CREATE, FORCE_CREATE}
 
     @DataBoundConstructor
     public YandexTemplate(String vmName, String initVMTemplate, String description, Node.Mode mode,
@@ -134,9 +219,65 @@ public class YandexTemplate implements Describable<YandexTemplate> {
         if (nodeProperties == null) {
             nodeProperties = new DescribableList<>(Saveable.NOOP);
         }
+        reservations = new CapacityReservation(RESERVATION_EXPIRATION);
         return this;
     }
 
+    @DataBoundSetter
+    public void setInstanceCap(int instanceCap) {
+        this.instanceCap = Math.max(instanceCap, 0);
+    }
+
+    @DataBoundSetter
+    public void setInbound(boolean inbound) {
+        this.inbound = inbound;
+    }
+
+    @DataBoundSetter
+    public void setWarmPoolMinReady(int warmPoolMinReady) {
+        this.warmPoolMinReady = Math.max(warmPoolMinReady, 0);
+    }
+
+    /**
+     * @return maximum number of idle agents kept by the warm pool, never less than the minimum
+     */
+    public int getWarmPoolMaxReady() {
+        return Math.max(warmPoolMaxReady, warmPoolMinReady);
+    }
+
+    @DataBoundSetter
+    public void setWarmPoolMaxReady(int warmPoolMaxReady) {
+        this.warmPoolMaxReady = Math.max(warmPoolMaxReady, 0);
+    }
+
+    @DataBoundSetter
+    public void setWarmPoolRefillRate(int warmPoolRefillRate) {
+        this.warmPoolRefillRate = Math.max(warmPoolRefillRate, 0);
+    }
+
+    /**
+     * @return billing of the instances, per second unless configured otherwise
+     */
+    @NonNull
+    public YCBillingModel getBillingModel() {
+        return billingModel == null ? YCBillingModel.PER_SECOND : billingModel;
+    }
+
+    @DataBoundSetter
+    public void setPreemptible(boolean preemptible) {
+        this.preemptible = preemptible;
+    }
+
+    @DataBoundSetter
+    public void setPreemptibleFallback(boolean preemptibleFallback) {
+        this.preemptibleFallback = preemptibleFallback;
+    }
+
+    @DataBoundSetter
+    public void setBillingModel(YCBillingModel billingModel) {
+        this.billingModel = billingModel;
+    }
+
     public Set<LabelAtom> getLabelSet() {
         if (labelSet == null) {
             labelSet = Label.parse(labels);
@@ -152,31 +293,158 @@ public class YandexTemplate implements Describable<YandexTemplate> {
         return Collections.unmodifiableList(tags);
     }
 
-    public YCAbstractSlave provision(int number, EnumSet<ProvisionOptions> provisionOptions) throws Exception {
+    public List<CompletableFuture<YCAbstractSlave>> provision(int number, EnumSet<ProvisionOptions> provisionOptions) throws Exception {
         return provisionOnDemand(number, provisionOptions);
     }
 
-    private YCAbstractSlave provisionOnDemand(int number, EnumSet<ProvisionOptions> provisionOptions) throws Exception {
+    private List<CompletableFuture<YCAbstractSlave>> provisionOnDemand(int number, EnumSet<ProvisionOptions> provisionOptions) throws Exception {
+        CircuitBreaker breaker = getCircuitBreaker();
+        if (!breaker.isAvailable()) {
+            logProvisionInfo(String.format("Create requests are failing (%s, %s failed), not provisioning",
+                    breaker.getState(), breaker.getFailures()));
+            return Collections.emptyList();
+        }
         InstanceServiceOuterClass.CreateInstanceRequest createInstanceRequest = createVm();
-        List<InstanceOuterClass.Instance> orphans = findOrphansOrStopInstance(tplInstance(createInstanceRequest), number);
+        List<InstanceOuterClass.Instance> tplAllInstance = tplInstance(createInstanceRequest);
+        List<InstanceOuterClass.Instance> orphans = findOrphansOrStopInstance(tplAllInstance, number);
         if (orphans.isEmpty() && !provisionOptions.contains(ProvisionOptions.FORCE_CREATE)
                 && !provisionOptions.contains(ProvisionOptions.ALLOW_CREATE)) {
             logProvisionInfo("No existing instance found - but cannot create new instance");
-            return null;
+            return Collections.emptyList();
+        }
+        List<CompletableFuture<YCAbstractSlave>> slaves = new ArrayList<>();
+        for (InstanceOuterClass.Instance orphan : orphans) {
+            YCAbstractSlave slave = toSlave(orphan);
+            slaves.add(wakeUpInstance(orphan).thenApply(v -> slave));
+        }
+        int needCreateCount = Math.max(number - orphans.size(), 0);
+        Set<String> existing = new HashSet<>();
+        for (InstanceOuterClass.Instance instance : tplAllInstance) {
+            existing.add(instance.getName());
+        }
+        // a half-open breaker lets a single probe through
+        int wantedCount = breaker.getState() == CircuitBreaker.State.HALF_OPEN ? Math.min(needCreateCount, 1) : needCreateCount;
+        // the names count against the cap until the instances are listed, so concurrent calls can't overshoot it
+        List<String> names = reservations.reserve(existing, wantedCount, instanceCap, this::newInstanceName);
+        if (names.size() < wantedCount) {
+            logProvisionInfo(String.format("%d new instances are needed, but because of instance cap only %d can be created",
+                    needCreateCount, names.size()));
         }
-        wakeUpInstance(orphans);
-        if (orphans.size() == number) {
-            return toSlave(orphans.get(0));
+        // the probe is taken only if there is a name to send it with
+        int allowedCount = breaker.allow(names.size());
+        if (allowedCount < needCreateCount) {
+            if (allowedCount < names.size()) {
+                for (String name : names.subList(allowedCount, names.size())) {
+                    reservations.release(name);
+                }
+                names = names.subList(0, allowedCount);
+            }
+            if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+                logProvisionInfo(String.format("%d new instances are needed, but create requests are failing (%s), only %d can be created",
+                        needCreateCount, breaker.getState(), allowedCount));
+            }
+        }
+        // create requests are sent at once, the operations are tracked in parallel
+        for (String name : names) {
+            slaves.add(createSlave(withInstanceName(createInstanceRequest, name)).whenComplete((slave, e) -> {
+                if (e != null) {
+                    reservations.release(name);
+                    if (breaker.onFailure()) {
+                        LOGGER.log(Level.WARNING, "{0}. Create requests are failing, not creating instances for {1}s: {2}",
+                                new Object[]{this, TimeUnit.MILLISECONDS.toSeconds(BREAKER_OPEN), e.getMessage()});
+                    }
+                } else if (breaker.onSuccess()) {
+                    LOGGER.log(Level.INFO, "{0}. Create requests succeed again", this);
+                }
+            }));
+        }
+        return slaves;
+    }
+
+    /**
+     * Releases the name of a requested instance once its node is added, or if the instance never got running.
+     * From then on an instance without a node is an orphan.
+     *
+     * @param name - instance name
+     */
+    public void releaseReservation(String name) {
+        reservations.release(name);
+    }
+
+    private CompletableFuture<YCAbstractSlave> createSlave(InstanceServiceOuterClass.CreateInstanceRequest createInstanceRequest) {
+        YCProvisioningMetrics.createRequested(this, createInstanceRequest.getName());
+        return createWithFallback(createInstanceRequest).thenApply(response -> {
+            // the next status lookup must see the created instance
+            parent.getInstanceCache().invalidate();
+            try {
+                String instanceId = response.getMetadata()
+                        .unpack(InstanceServiceOuterClass.CreateInstanceMetadata.class).getInstanceId();
+                YCAbstractSlave slave = toSlave(createInstanceRequest.getName(), instanceId);
+                slave.setFreshInstance(true);
+                return slave;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((slave, e) -> {
+            if (e != null) {
+                YCProvisioningMetrics.forget(createInstanceRequest.getName());
+            }
+        });
+    }
+
+    /**
+     * Creates the instance. A preemptible instance is created as a standard one if there is no preemptible capacity
+     * and the fallback is enabled.
+     */
+    CompletableFuture<OperationOuterClass.Operation> createWithFallback(InstanceServiceOuterClass.CreateInstanceRequest createInstanceRequest) {
+        CompletableFuture<OperationOuterClass.Operation> created = createInstance(createInstanceRequest);
+        if (!createInstanceRequest.getSchedulingPolicy().getPreemptible()) {
+            return created;
         }
-        int needCreateCount = number - orphans.size();
-        InstanceServiceOuterClass.ListInstancesResponse listInstancesResponse = getFilterInstanceResponse(createInstanceRequest.getFolderId());
-        if (needCreateCount > 0 && listInstancesResponse.getInstancesList().isEmpty()) {
-            OperationOuterClass.Operation response = createInstanceResponse(createInstanceRequest);
-            if (!response.getError().getMessage().isEmpty()) {
-                throw new YandexClientException("Error for create: " + response.getError().getMessage());
+        YCPreemption.Stats stats = YCPreemption.stats(this);
+        return created.handle((response, e) -> {
+            if (e == null) {
+                stats.created.incrementAndGet();
+                return CompletableFuture.completedFuture(response);
             }
+            if (!preemptibleFallback || !YCPreemption.isCapacityUnavailable(e)) {
+                return CompletableFuture.<OperationOuterClass.Operation>failedFuture(e);
+            }
+            logProvisionInfo("No preemptible capacity for " + createInstanceRequest.getName()
+                    + ", creating a standard instance: " + e.getMessage());
+            return createInstance(createInstanceRequest.toBuilder().clearSchedulingPolicy().build())
+                    .thenApply(fallback -> {
+                        stats.fallbacks.incrementAndGet();
+                        return fallback;
+                    });
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * Generates a name for the new instance of this template: vm name followed by a random suffix.
+     * The vm name is shortened if the result would not fit into the 63 characters allowed for instance names.
+     */
+    String newInstanceName() {
+        StringBuilder name = new StringBuilder(StringUtils.left(vmName, MAX_NAME_PREFIX_LENGTH)).append('-');
+        Random random = ThreadLocalRandom.current();
+        for (int i = 0; i < NAME_SUFFIX_LENGTH; i++) {
+            name.append(NAME_SUFFIX_CHARS.charAt(random.nextInt(NAME_SUFFIX_CHARS.length())));
+        }
+        return name.toString();
+    }
+
+    private InstanceServiceOuterClass.CreateInstanceRequest withInstanceName(InstanceServiceOuterClass.CreateInstanceRequest request, String name) {
+        InstanceServiceOuterClass.CreateInstanceRequest.Builder builder = request.toBuilder().setName(name);
+        if (!request.getHostname().isEmpty()) {
+            // hostname must be unique in the network as well
+            builder.setHostname(name);
         }
-        return toSlave(tplInstance(createInstanceRequest).get(0));
+        if (inbound) {
+            // the agent node is named after the instance
+            builder.putMetadata(AGENT_NAME_METADATA, name)
+                    .putMetadata(AGENT_SECRET_METADATA, JnlpAgentReceiver.SLAVE_SECRET.mac(name));
+        }
+        return builder.build();
     }
 
     private void logProvisionInfo(String message) {
@@ -184,19 +452,23 @@ public class YandexTemplate implements Describable<YandexTemplate> {
     }
 
     private YCAbstractSlave toSlave(InstanceOuterClass.Instance instance) throws IOException {
+        logProvisionInfo("Return instance: " + instance.toString());
+        return toSlave(instance.getName(), instance.getId());
+    }
+
+    private YCAbstractSlave toSlave(String name, String instanceId) throws IOException {
         try {
-            logProvisionInfo("Return instance: " + instance.toString());
-            return newOnDemandSlave(instance);
+            return newOnDemandSlave(name, instanceId);
         } catch (Descriptor.FormException e) {
             throw new AssertionError(e); // we should have discovered all configuration issues upfront
         }
     }
 
 
-    private YCAbstractSlave newOnDemandSlave(InstanceOuterClass.Instance instance) throws Descriptor.FormException, IOException {
+    private YCAbstractSlave newOnDemandSlave(String name, String instanceId) throws Descriptor.FormException, IOException {
         YCAgentConfig.OnDemand config = new YCAgentConfig.OnDemandBuilder()
-                .withName(instance.getName())
-                .withInstanceId(instance.getId())
+                .withName(name)
+                .withInstanceId(instanceId)
                 .withDescription(description)
                 .withMode(mode)
                 .withCloudName(parent.name)
@@ -209,6 +481,7 @@ public class YandexTemplate implements Describable<YandexTemplate> {
                 .withNumExecutors(numExecutors)
                 .withRemoteFS(remoteFS)
                 .withTmpDir(tmpDir)
+                .withLauncher(inbound ? new YCInboundComputerLauncher() : new YCUnixComputerLauncher())
                 .build();
         return YCAgentFactory.getInstance().createOnDemandAgent(config);
     }
@@ -233,35 +506,51 @@ public class YandexTemplate implements Describable<YandexTemplate> {
     }
 
     private boolean checkInstance(InstanceOuterClass.Instance instance) {
-        for (YCAbstractSlave node : NodeIterator.nodes(YCAbstractSlave.class)) {
-            if (node.getInstanceId().equals(instance.getId()) && !"STOPPED".equals(instance.getStatus().name())) {
-                return false;
-            }
+        if (reservations.isReserved(instance.getName())) {
+            // created, its node is added once the instance is running
+            return false;
         }
-        return true;
+        YCAbstractSlave node = YCNodeIndex.get(instance.getId());
+        if (node == null) {
+            return true;
+        }
+        // the snapshot can still list an instance as stopped after it was woken up and its agent started connecting
+        Computer computer = node.toComputer();
+        return "STOPPED".equals(instance.getStatus().name()) && (computer == null || !computer.isConnecting());
     }
 
     private List<InstanceOuterClass.Instance> tplInstance(InstanceServiceOuterClass.CreateInstanceRequest createInstanceRequest) throws Exception {
-        InstanceServiceOuterClass.ListInstancesResponse listInstancesResponse = getFilterInstanceResponse(createInstanceRequest.getFolderId());
-        return listInstancesResponse.getInstancesList();
+        List<InstanceOuterClass.Instance> result = new ArrayList<>();
+        // runs on the provisioner thread: an outdated snapshot is fine, created instances are counted by the reservations
+        for (InstanceOuterClass.Instance instance : parent.getInstanceCache().getCachedInstances(createInstanceRequest.getFolderId())) {
+            if (isTemplateInstance(instance)) {
+                result.add(instance);
+            }
+        }
+        return result;
     }
 
-    private void wakeUpInstance(List<InstanceOuterClass.Instance> orphans) {
-        List<String> instances = new ArrayList<>();
-        for (InstanceOuterClass.Instance sd : orphans) {
-            if ("STOPPED".equals(sd.getStatus().name())) {
-                instances.add(sd.getId());
-            }
+    /**
+     * @param instance - vm instance
+     * @return true if the instance was created from this template
+     */
+    public boolean isTemplateInstance(InstanceOuterClass.Instance instance) {
+        // instances created before the template label was introduced are named exactly as the template
+        return vmName.equals(instance.getLabelsMap().get(TEMPLATE_LABEL)) || vmName.equals(instance.getName());
+    }
+
+    private CompletableFuture<Void> wakeUpInstance(InstanceOuterClass.Instance orphan) {
+        if (!"STOPPED".equals(orphan.getStatus().name())) {
+            return CompletableFuture.completedFuture(null);
         }
-        try {
-            if (!instances.isEmpty()) {
-                for (String instanceId : instances) {
-                    startInstance(instanceId);
-                }
+        String instanceId = orphan.getId();
+        return startInstance(instanceId).handle((response, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.WARNING, this + ". Failed to start instance " + instanceId, e);
             }
-        } catch (Exception e) {
-            LOGGER.log(Level.WARNING, e.getMessage());
-        }
+            parent.getInstanceCache().invalidate();
+            return null;
+        });
     }
 
     public InstanceServiceOuterClass.CreateInstanceRequest createVm() throws IOException {
@@ -273,104 +562,131 @@ public class YandexTemplate implements Describable<YandexTemplate> {
         if (privateKey == null) {
             throw new YandexClientException("Failed get ssh key");
         }
-        return getInitVMTemplateBuilder(this.getInitVMTemplate())
+        String sshKey = privateKey.getPublicFingerprint() + "= " + privateKey.getUserName();
+        InstanceServiceOuterClass.CreateInstanceRequest.Builder builder = getVmTemplate().getPrototype().toBuilder()
                 .setName(this.getVmName())
-                .putMetadata("user-data", String.format(userData, privateKey.getUserName(), privateKey.getPublicFingerprint() + "= " + privateKey.getUserName()))
+                .putLabels(TEMPLATE_LABEL, this.getVmName());
+        if (preemptible) {
+            builder.setSchedulingPolicy(InstanceOuterClass.SchedulingPolicy.newBuilder().setPreemptible(true));
+        }
+        if (inbound) {
+            String rootUrl = j == null ? null : j.getRootUrl();
+            if (rootUrl == null) {
+                throw new YandexClientException("Jenkins URL must be configured for inbound agents");
+            }
+            return builder
+                    .putMetadata("user-data", String.format(inboundUserData, privateKey.getUserName(), sshKey,
+                            privateKey.getUserName(), remoteFS))
+                    .putMetadata(JENKINS_URL_METADATA, rootUrl)
+                    .build();
+        }
+        return builder
+                .putMetadata("user-data", String.format(userData, privateKey.getUserName(), sshKey))
                 .build();
     }
 
     public InstanceServiceGrpc.InstanceServiceBlockingStub getInstanceServiceBlockingStub() throws Exception {
-        ServiceAccount serviceAccount = AbstractCloud.DescriptorImpl.getCredentials(parent.getCredentialsId());
-        if (serviceAccount == null) {
-            throw new LoginFailed("Failed find serviceAccount");
-        }
-        if (provider == null || provider.get().getExpiresAt().isBefore(LocalDateTime.now().atZone(ZoneId.systemDefault()).toInstant())) {
-            LOGGER.log(Level.WARNING, "Token null or expired. Generate new");
-            closeChannel("iam".concat(ChannelFactory.DEFAULT_ENDPOINT));
-            provider = serviceAccount.buildCredentialProvider();
-            if (provider.get().getToken() == null) {
-                throw new LoginFailed("Failed to login!");
-            }
-            closeChannel("compute".concat(ChannelFactory.DEFAULT_ENDPOINT));
-            instanceServiceBlockingStub = ServiceFactory.builder()
-                    .credentialProvider(provider)
-                    .build().create(InstanceServiceGrpc.InstanceServiceBlockingStub.class, InstanceServiceGrpc::newBlockingStub);
-        }
-        return instanceServiceBlockingStub;
+        return parent.getComputeClient().getInstanceService();
     }
 
-    public void closeChannel(String target) throws InterruptedException {
-        ManagedChannel channel = ManagedChannelBuilder.forTarget(target).usePlaintext().build();
-        channel.shutdownNow();
-        channel.awaitTermination(1, TimeUnit.MINUTES);
+    public CompletableFuture<OperationOuterClass.Operation> createInstance(InstanceServiceOuterClass.CreateInstanceRequest instanceRequest) {
+        YCComputeClient client = parent.getComputeClient();
+        return client.create(instanceRequest).thenCompose(client::awaitOperation);
     }
 
-    public OperationOuterClass.Operation createInstanceResponse(InstanceServiceOuterClass.CreateInstanceRequest instanceRequest) throws Exception {
-        return this.getInstanceServiceBlockingStub().create(instanceRequest);
+    public CompletableFuture<OperationOuterClass.Operation> startInstance(String instanceId) {
+        YCComputeClient client = parent.getComputeClient();
+        return client.start(instanceId).thenCompose(client::awaitOperation);
     }
 
-    public void startInstance(String instanceId) throws Exception {
-        //noinspection ResultOfMethodCallIgnored
-        this.getInstanceServiceBlockingStub().start(InstanceServiceOuterClass.StartInstanceRequest.newBuilder()
-                .setInstanceId(instanceId)
-                .build());
+    public CompletableFuture<OperationOuterClass.Operation> stopInstance(String instanceId) {
+        YCComputeClient client = parent.getComputeClient();
+        return client.stop(instanceId).thenCompose(client::awaitOperation);
     }
 
-
-    public void stopInstance(String instanceId) throws Exception {
-        //noinspection ResultOfMethodCallIgnored
-        this.getInstanceServiceBlockingStub().stop(InstanceServiceOuterClass.StopInstanceRequest.newBuilder()
-                .setInstanceId(instanceId)
-                .build());
+    public InstanceOuterClass.Instance getInstanceResponse(String instanceId) throws Exception {
+        return YCComputeClient.await(parent.getComputeClient().get(instanceId));
     }
 
-    public InstanceOuterClass.Instance getInstanceResponse(String instanceId) throws Exception {
-        return this.getInstanceServiceBlockingStub().get(InstanceServiceOuterClass.GetInstanceRequest.newBuilder()
-                .setInstanceId(instanceId)
-                .build());
+    public InstanceServiceOuterClass.ListInstancesResponse listInstances(InstanceServiceOuterClass.ListInstancesRequest request) throws Exception {
+        return YCComputeClient.await(parent.getComputeClient().list(request));
     }
 
-    public InstanceServiceOuterClass.ListInstancesResponse getFilterInstanceResponse(String folderId) throws Exception {
-        return this.getInstanceServiceBlockingStub().list(InstanceServiceOuterClass.ListInstancesRequest.newBuilder()
-                .setFolderId(folderId)
-                .setFilter("name=\"".concat(this.getVmName()).concat("\""))
-                .build());
+    /**
+     * @return circuit breaker of the create requests of this template in its zone
+     */
+    @NonNull
+    public CircuitBreaker getCircuitBreaker() {
+        YCVmTemplate parsed = getVmTemplate();
+        String zone = parsed.isValid() ? parsed.getPrototype().getZoneId() : "";
+        return CIRCUIT_BREAKERS.computeIfAbsent(parent.name + "/" + zone + "/" + getDescription(),
+                k -> new CircuitBreaker(BREAKER_WINDOW, Math.min(BREAKER_MINIMUM_CALLS, BREAKER_WINDOW),
+                        BREAKER_FAILURE_RATE / 100.0, BREAKER_OPEN));
     }
 
+    public String getFolderId() {
+        return getVmTemplate().getPrototype().getFolderId();
+    }
 
-    public void deleteInstanceResponse(String instanceId) throws Exception {
-        //noinspection ResultOfMethodCallIgnored
-        this.getInstanceServiceBlockingStub().delete(InstanceServiceOuterClass.DeleteInstanceRequest.newBuilder()
-                .setInstanceId(instanceId)
-                .build());
+    /**
+     * @return init vm template parsed once, parsed again only if the template text changes
+     */
+    @NonNull
+    public YCVmTemplate getVmTemplate() {
+        String source = this.getInitVMTemplate();
+        YCVmTemplate parsed = vmTemplate;
+        if (parsed == null || !parsed.isParsedFrom(source)) {
+            parsed = YCVmTemplate.parse(source);
+            if (!parsed.isValid()) {
+                LOGGER.log(Level.WARNING, "{0}. {1}", new Object[]{this, parsed.getError()});
+            }
+            vmTemplate = parsed;
+        }
+        return parsed;
     }
 
-    private static String convertYamlToJson(String yaml) throws JsonProcessingException {
-        ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
-        Object obj = yamlReader.readValue(yaml, Object.class);
-        ObjectMapper jsonWriter = new ObjectMapper();
-        return jsonWriter.writeValueAsString(obj);
+    /**
+     * @return image id of the boot disk, or the snapshot id prefixed with "snapshot:", or null if neither is set
+     */
+    @CheckForNull
+    public String getImageKey() {
+        YCVmTemplate parsed = getVmTemplate();
+        if (!parsed.isValid()) {
+            return null;
+        }
+        InstanceServiceOuterClass.AttachedDiskSpec.DiskSpec disk = parsed.getPrototype().getBootDiskSpec().getDiskSpec();
+        if (StringUtils.isNotEmpty(disk.getImageId())) {
+            return disk.getImageId();
+        }
+        if (StringUtils.isNotEmpty(disk.getSnapshotId())) {
+            return "snapshot:" + disk.getSnapshotId();
+        }
+        return null;
     }
 
-    private static InstanceServiceOuterClass.CreateInstanceRequest.Builder getInitVMTemplateBuilder(String initVmTemplate) throws InvalidProtocolBufferException, JsonProcessingException {
-        InstanceServiceOuterClass.CreateInstanceRequest.Builder builder = InstanceServiceOuterClass.CreateInstanceRequest.newBuilder();
-        try {
-            TextFormat.merge(initVmTemplate, builder);
-            LOGGER.log(Level.INFO, "Protobuf format");
-        }catch (TextFormat.ParseException e){
-            try{
-                JsonFormat.parser().merge(initVmTemplate, builder);
-                LOGGER.log(Level.INFO, "Json format");
-            }catch (InvalidProtocolBufferException ipe){
-                String jsonVm = convertYamlToJson(initVmTemplate);
-                JsonFormat.parser().merge(jsonVm, builder);
-                LOGGER.log(Level.INFO, "Yaml format");
-            }
-        }catch (Exception e){
-            LOGGER.log(Level.WARNING, e.getMessage());
-            throw new YandexClientException("Invalid protobuf format");
+    /**
+     * @return what the launcher knows about the boot disk image, shown on the template page
+     */
+    public String getImageStatus() {
+        String imageKey = getImageKey();
+        YCImageCapabilities.Capabilities capabilities = YCImageCapabilities.get(imageKey);
+        if (capabilities == null) {
+            return "Image " + Util.fixNull(imageKey) + " is checked when the first agent is launched from it";
+        }
+        if (capabilities.needsJavaInstall()) {
+            return "Image " + imageKey + " has no java: every agent installs it with apt on launch, "
+                    + "which takes minutes. Use an image with java preinstalled to skip the slow install path";
+        }
+        if (capabilities.isInitScriptApplied()) {
+            return "Image " + imageKey + " provides " + capabilities.getJavaVersion()
+                    + " after the init script, launch checks are skipped for agents with the same init script";
         }
-        return builder;
+        return "Image " + imageKey + " provides " + capabilities.getJavaVersion() + ", launch checks are skipped";
+    }
+
+    public CompletableFuture<OperationOuterClass.Operation> deleteInstance(String instanceId) {
+        YCComputeClient client = parent.getComputeClient();
+        return client.delete(instanceId).thenCompose(client::awaitOperation);
     }
 
     @SuppressWarnings("unused")
@@ -390,11 +706,30 @@ public class YandexTemplate implements Describable<YandexTemplate> {
                 return FormValidation.error("Empty value");
             }
             if (Pattern.matches("|[a-z]([-a-z0-9]{0,61}[a-z0-9])?", value)) {
+                if (value.length() > MAX_NAME_PREFIX_LENGTH) {
+                    return FormValidation.warning("Instance names are the vm name followed by a random suffix, "
+                            + "the vm name will be shortened to " + MAX_NAME_PREFIX_LENGTH + " characters");
+                }
                 return FormValidation.ok();
             }
             return FormValidation.error("Not valid");
         }
 
+        @RequirePOST
+        public FormValidation doCheckInstanceCap(@AncestorInPath ItemGroup context, @QueryParameter String value) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            if (value == null || value.isEmpty()) {
+                return FormValidation.ok();
+            }
+            try {
+                if (Integer.parseInt(value) >= 0) {
+                    return FormValidation.ok();
+                }
+            } catch (NumberFormatException ignored) {
+            }
+            return FormValidation.error("Instance cap must be a non-negative number");
+        }
+
         @RequirePOST
         public FormValidation doCheckInitVMTemplate(@AncestorInPath ItemGroup context, @QueryParameter String value) {
             Jenkins.get().checkPermission(Jenkins.ADMINISTER);
@@ -405,13 +740,9 @@ public class YandexTemplate implements Describable<YandexTemplate> {
         }
 
         @POST
-        public FormValidation doCheckFormatVmTemplate(@AncestorInPath ItemGroup context, @QueryParameter String initVMTemplate) throws InvalidProtocolBufferException, JsonProcessingException {
+        public FormValidation doCheckFormatVmTemplate(@AncestorInPath ItemGroup context, @QueryParameter String initVMTemplate) {
             Jenkins.get().checkPermission(Jenkins.ADMINISTER);
-            try {
-                return FormValidation.ok(getInitVMTemplateBuilder(initVMTemplate).toString());
-            }catch (Exception e){
-                return FormValidation.error(e.getMessage());
-            }
+            return YCVmTemplate.parse(initVMTemplate).toFormValidation();
         }
     }
 }
@@ -0,0 +1,20 @@
+package io.jenkins.plugins.yc.exception;
+
+public class OperationFailed extends YandexClientException {
+
+    private final int code;
+
+    /**
+     * Exception for operations finished with an error.
+     * @param message - error message
+     * @param code - google.rpc code of the operation error
+     */
+    public OperationFailed(final String message, final int code) {
+        super(message);
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
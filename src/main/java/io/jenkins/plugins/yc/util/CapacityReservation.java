@@ -0,0 +1,97 @@
+package io.jenkins.plugins.yc.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Names of the instances requested from the cloud which may not be listed yet, counted against a capacity.
+ * <p>
+ * A create request returns before the instance is listed, so a capacity check made from the listing alone lets
+ * concurrent provisioning overshoot the cap. A reserved name counts against the capacity until it shows up in a
+ * listing, which counts it from then on. The name stays reserved until it is released, once its node is added or its
+ * create request fails, or until the reservation expires, so a listed instance without a node yet is not taken for
+ * an orphan.
+ */
+public class CapacityReservation {
+
+    private final long expirationMs;
+
+    /* Reserved name and reservation time, in reservation order. */
+    private final Map<String, Long> pending = new LinkedHashMap<>();
+
+    /**
+     * @param expirationMs - time after which a reserved name no longer counts if it was never listed
+     */
+    public CapacityReservation(long expirationMs) {
+        this.expirationMs = expirationMs;
+    }
+
+    /**
+     * Reserves names for new instances.
+     *
+     * @param existing - names of the instances listed by the cloud
+     * @param wanted - number of instances to create
+     * @param capacity - maximum number of instances, 0 for unlimited
+     * @param names - generates a name for a new instance
+     * @return reserved names, fewer than wanted if the capacity doesn't allow more
+     */
+    public synchronized List<String> reserve(Collection<String> existing, int wanted, int capacity, Supplier<String> names) {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> reservation = it.next();
+            if (now - reservation.getValue() > expirationMs) {
+                it.remove();
+            }
+        }
+        int granted = Math.max(wanted, 0);
+        if (capacity > 0) {
+            int unlisted = 0;
+            for (String name : pending.keySet()) {
+                if (!existing.contains(name)) {
+                    unlisted++;
+                }
+            }
+            granted = Math.min(granted, Math.max(capacity - existing.size() - unlisted, 0));
+        }
+        if (granted == 0) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>(granted);
+        while (result.size() < granted) {
+            String name = names.get();
+            if (!existing.contains(name) && pending.putIfAbsent(name, now) == null) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Releases the name of an instance whose node was added or which was not created.
+     */
+    public synchronized void release(String name) {
+        pending.remove(name);
+    }
+
+    /**
+     * @param name - instance name
+     * @return true if the name is reserved and its reservation has not expired
+     */
+    public synchronized boolean isReserved(String name) {
+        Long time = pending.get(name);
+        return time != null && System.currentTimeMillis() - time <= expirationMs;
+    }
+
+    /**
+     * @return number of reserved names
+     */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+}
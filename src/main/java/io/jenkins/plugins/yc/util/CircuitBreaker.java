@@ -0,0 +1,189 @@
+package io.jenkins.plugins.yc.util;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker over the outcomes of recent requests.
+ * <p>
+ * The breaker opens when the failure rate of the last {@code windowSize} requests reaches {@code failureRate}, once
+ * at least {@code minimumCalls} requests were recorded. While open no request is allowed. After {@code openMs} it
+ * is half-open and allows a single probe request: success closes the breaker, failure opens it again. A probe whose
+ * outcome is not recorded within {@code openMs} is given up and another probe is allowed.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int minimumCalls;
+
+    private final double failureRate;
+
+    private final long openMs;
+
+    private final LongSupplier clock;
+
+    /* Ring of the outcomes of the last requests, true for a failure. */
+    private final boolean[] outcomes;
+
+    private int next;
+
+    private int recorded;
+
+    private int failures;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    /* Start of the probe in flight, -1 if there is none. */
+    private long probeStartedAt = -1;
+
+    /**
+     * @param windowSize - number of recent requests the failure rate is computed over
+     * @param minimumCalls - requests needed before the breaker can open
+     * @param failureRate - failure rate between 0 and 1 which opens the breaker
+     * @param openMs - time the breaker stays open before a probe is allowed
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRate, long openMs) {
+        this(windowSize, minimumCalls, failureRate, openMs, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRate, long openMs, LongSupplier clock) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || failureRate <= 0 || failureRate > 1 || openMs < 0) {
+            throw new IllegalArgumentException("Invalid circuit breaker: window=" + windowSize + ", minimum calls="
+                    + minimumCalls + ", failure rate=" + failureRate + ", open=" + openMs + "ms");
+        }
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRate = failureRate;
+        this.openMs = openMs;
+        this.clock = clock;
+    }
+
+    /**
+     * @param wanted - requests the caller wants to send
+     * @return requests the caller may send: all of them while closed, one probe while half-open, none while open
+     */
+    public synchronized int allow(int wanted) {
+        long now = clock.getAsLong();
+        switch (currentState(now)) {
+            case CLOSED:
+                return wanted;
+            case HALF_OPEN:
+                if (wanted > 0 && !isProbing(now)) {
+                    probeStartedAt = now;
+                    return 1;
+                }
+                return 0;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return true if {@link #allow} would allow a request, without taking the probe of a half-open breaker
+     */
+    public synchronized boolean isAvailable() {
+        long now = clock.getAsLong();
+        State current = currentState(now);
+        return current == State.CLOSED || (current == State.HALF_OPEN && !isProbing(now));
+    }
+
+    /**
+     * @return true if the breaker was closed by the success
+     */
+    public synchronized boolean onSuccess() {
+        State current = currentState(clock.getAsLong());
+        if (current == State.HALF_OPEN) {
+            close();
+            return true;
+        }
+        if (current == State.CLOSED) {
+            record(false);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the breaker was opened by the failure
+     */
+    public synchronized boolean onFailure() {
+        long now = clock.getAsLong();
+        State current = currentState(now);
+        if (current == State.HALF_OPEN) {
+            open(now);
+            return true;
+        }
+        if (current == State.CLOSED) {
+            record(true);
+            if (recorded >= minimumCalls && failures >= failureRate * recorded) {
+                open(now);
+                return true;
+            }
+        }
+        // outcomes of requests sent before the breaker opened don't count
+        return false;
+    }
+
+    public synchronized State getState() {
+        return currentState(clock.getAsLong());
+    }
+
+    /**
+     * @return failures among the recent requests, e.g. {@code 3/10}
+     */
+    public synchronized String getFailures() {
+        return failures + "/" + recorded;
+    }
+
+    /**
+     * @return milliseconds until a probe is allowed, 0 if the breaker is not open
+     */
+    public synchronized long getRemainingOpenMs() {
+        long now = clock.getAsLong();
+        return currentState(now) == State.OPEN ? openedAt + openMs - now : 0;
+    }
+
+    private State currentState(long now) {
+        if (state == State.OPEN && now - openedAt >= openMs) {
+            state = State.HALF_OPEN;
+            probeStartedAt = -1;
+        }
+        return state;
+    }
+
+    private boolean isProbing(long now) {
+        return probeStartedAt >= 0 && now - probeStartedAt < openMs;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+        probeStartedAt = -1;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        probeStartedAt = -1;
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+}
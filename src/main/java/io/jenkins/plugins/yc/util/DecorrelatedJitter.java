@@ -0,0 +1,30 @@
+package io.jenkins.plugins.yc.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry delays with decorrelated jitter: each delay is a random value between the base delay and three times the
+ * previous delay, capped. Unlike {@link ExponentialBackoff}, clients which failed together spread out quickly.
+ */
+public class DecorrelatedJitter {
+
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    public DecorrelatedJitter(long baseDelayMs, long maxDelayMs) {
+        if (baseDelayMs <= 0 || maxDelayMs < baseDelayMs) {
+            throw new IllegalArgumentException("Invalid jitter: base=" + baseDelayMs + ", max=" + maxDelayMs);
+        }
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * @param previousDelayMs - previous delay, 0 before the first retry
+     * @return delay before the next retry in milliseconds
+     */
+    public long next(long previousDelayMs) {
+        long upper = Math.min(maxDelayMs, Math.max(previousDelayMs, baseDelayMs) * 3);
+        return Math.min(maxDelayMs, ThreadLocalRandom.current().nextLong(baseDelayMs, upper + 1));
+    }
+}
@@ -0,0 +1,34 @@
+package io.jenkins.plugins.yc.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponentially growing delays with jitter: the n-th delay is a random value between a half and the whole of
+ * {@code min(max, initial * multiplier^n)}.
+ */
+public class ExponentialBackoff {
+
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final double multiplier;
+
+    public ExponentialBackoff(long initialDelayMs, long maxDelayMs, double multiplier) {
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs || multiplier < 1) {
+            throw new IllegalArgumentException("Invalid backoff: initial=" + initialDelayMs + ", max=" + maxDelayMs
+                    + ", multiplier=" + multiplier);
+        }
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * @param attempt - zero based attempt number
+     * @return delay before the attempt in milliseconds
+     */
+    public long delay(int attempt) {
+        double ceiling = initialDelayMs * Math.pow(multiplier, attempt);
+        long cap = ceiling >= maxDelayMs ? maxDelayMs : (long) ceiling;
+        return ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+    }
+}
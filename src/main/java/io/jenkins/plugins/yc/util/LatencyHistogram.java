@@ -0,0 +1,116 @@
+package io.jenkins.plugins.yc.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets, by default from half a second to ten minutes, the range of agent
+ * provisioning. Recording is lock free; quantiles are approximated by the upper bound of the bucket they fall into.
+ */
+public class LatencyHistogram {
+
+    private static final long[] PROVISIONING_BOUNDS = {500, 1000, 2000, 5000, 10000, 20000, 30000, 60000, 120000, 180000, 300000, 600000};
+
+    /* Upper bounds of the buckets in milliseconds, the last bucket is unbounded. */
+    private final long[] bounds;
+
+    private final AtomicLongArray counts;
+
+    private final LongAdder sum = new LongAdder();
+
+    public LatencyHistogram() {
+        this(PROVISIONING_BOUNDS);
+    }
+
+    /**
+     * @param boundsMs - ascending upper bounds of the buckets in milliseconds
+     */
+    public LatencyHistogram(long... boundsMs) {
+        for (int i = 1; i < boundsMs.length; i++) {
+            if (boundsMs[i] <= boundsMs[i - 1]) {
+                throw new IllegalArgumentException("Bucket bounds must be ascending: " + Arrays.toString(boundsMs));
+            }
+        }
+        this.bounds = boundsMs.clone();
+        this.counts = new AtomicLongArray(boundsMs.length + 1);
+    }
+
+    /**
+     * @param latencyMs - observed latency, negative values are ignored
+     */
+    public void record(long latencyMs) {
+        if (latencyMs < 0) {
+            return;
+        }
+        int bucket = 0;
+        while (bucket < bounds.length && latencyMs > bounds[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        sum.add(latencyMs);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getSumMs() {
+        return sum.sum();
+    }
+
+    public long getMeanMs() {
+        long count = getCount();
+        return count == 0 ? 0 : getSumMs() / count;
+    }
+
+    /**
+     * @param quantile - quantile between 0 and 1
+     * @return upper bound of the bucket of the quantile in milliseconds, {@link Long#MAX_VALUE} if it falls
+     * into the unbounded bucket, 0 if nothing was recorded
+     */
+    public long getQuantileMs(double quantile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= rank) {
+                return bounds[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Appends the histogram in the Prometheus text exposition format, in seconds.
+     *
+     * @param out - output
+     * @param name - metric name without the {@code _bucket}, {@code _sum} and {@code _count} suffixes
+     * @param labels - rendered labels without braces, e.g. {@code cloud="c1",phase="running"}
+     */
+    public void writePrometheus(StringBuilder out, String name, String labels) {
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts.get(i);
+            out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                    .append(seconds(bounds[i])).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += counts.get(bounds.length);
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ").append(seconds(getSumMs())).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+
+    private static String seconds(long ms) {
+        return String.format(Locale.ROOT, "%.3f", ms / 1000.0);
+    }
+}
@@ -0,0 +1,97 @@
+package io.jenkins.plugins.yc.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal writer of ustar archives with regular files only, enough to stream a few files to {@code tar -x}.
+ */
+public class TarStreamWriter implements AutoCloseable {
+
+    private static final int BLOCK = 512;
+
+    private final OutputStream out;
+
+    public TarStreamWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * @param name - file name relative to the extraction directory; names over 100 bytes are split into the ustar
+     *             prefix at a {@code /}, up to 255 bytes in total
+     * @param content - file content
+     * @param mode - unix permissions, e.g. 0644
+     */
+    public void addFile(String name, byte[] content, int mode) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int split = split(nameBytes);
+        if (split < 0) {
+            throw new IllegalArgumentException("File name is too long: " + name);
+        }
+        byte[] header = new byte[BLOCK];
+        // the prefix is joined with the name by a slash, which is not stored
+        int nameStart = split == 0 ? 0 : split + 1;
+        System.arraycopy(nameBytes, nameStart, header, 0, nameBytes.length - nameStart);
+        System.arraycopy(nameBytes, 0, header, 345, split);
+        octal(header, 100, 8, mode);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, content.length);
+        octal(header, 136, 12, System.currentTimeMillis() / 1000);
+        header[156] = '0';
+        byte[] magic = "ustar\u000000".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(magic, 0, header, 257, magic.length);
+        // checksum is computed with the checksum field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        octal(header, 148, 7, checksum);
+        out.write(header);
+        out.write(content);
+        int padding = (BLOCK - content.length % BLOCK) % BLOCK;
+        out.write(new byte[padding]);
+    }
+
+    /* Length of the ustar prefix of the name, 0 if the name fits without one, -1 if it can't be stored. */
+    private static int split(byte[] name) {
+        if (name.length <= 100) {
+            return 0;
+        }
+        for (int i = Math.min(name.length - 2, 155); i > 0; i--) {
+            if (name[i] == '/' && name.length - i - 1 <= 100) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the end of archive marker, the underlying stream is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        out.write(new byte[2 * BLOCK]);
+        out.flush();
+    }
+
+    /* Zero padded octal number terminated by NUL. */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        if (digits.length() > length - 1) {
+            throw new IllegalArgumentException("Value " + value + " doesn't fit into the tar header");
+        }
+        int pad = length - 1 - digits.length();
+        for (int i = 0; i < pad; i++) {
+            header[offset + i] = '0';
+        }
+        for (int i = 0; i < digits.length(); i++) {
+            header[offset + pad + i] = (byte) digits.charAt(i);
+        }
+        header[offset + length - 1] = 0;
+    }
+}
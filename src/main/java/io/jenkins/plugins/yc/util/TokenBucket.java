@@ -0,0 +1,56 @@
+package io.jenkins.plugins.yc.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limiter which hands out reservations instead of blocking: a caller over the rate is told how
+ * long to wait, so asynchronous callers can schedule the call instead of holding a thread.
+ */
+public class TokenBucket {
+
+    private final double permitsPerNano;
+
+    private final double capacity;
+
+    private final LongSupplier nanoClock;
+
+    private double tokens;
+
+    private long updated;
+
+    /**
+     * @param permitsPerSecond - sustained rate
+     * @param burst - permits which can be used at once after a quiet period
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(double permitsPerSecond, int burst, LongSupplier nanoClock) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate: " + permitsPerSecond + " per second, burst " + burst);
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = burst;
+        this.nanoClock = nanoClock;
+        this.tokens = burst;
+        this.updated = nanoClock.getAsLong();
+    }
+
+    /**
+     * Takes a permit, possibly one which becomes available only in the future.
+     *
+     * @return milliseconds to wait before using the permit, 0 if it can be used right away
+     */
+    public synchronized long reserve() {
+        long now = nanoClock.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - updated) * permitsPerNano);
+        updated = now;
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis((long) Math.ceil(-tokens / permitsPerNano));
+    }
+}
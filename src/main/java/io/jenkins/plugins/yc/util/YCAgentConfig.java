@@ -1,6 +1,7 @@
 package io.jenkins.plugins.yc.util;
 
 import hudson.model.Node;
+import hudson.slaves.ComputerLauncher;
 import hudson.slaves.NodeProperty;
 import io.jenkins.plugins.yc.YCTag;
 import lombok.Getter;
@@ -26,6 +27,8 @@ public abstract class YCAgentConfig {
 
     private final int numExecutors;
 
+    private final ComputerLauncher launcher;
+
     private YCAgentConfig(Builder<? extends Builder, ? extends YCAgentConfig> builder) {
         this.name = builder.name;
         this.description = builder.description;
@@ -40,6 +43,7 @@ public abstract class YCAgentConfig {
         this.numExecutors = builder.numExecutors;
         this.remoteFS = builder.remoteFS;
         this.tmpDir = builder.tmpDir;
+        this.launcher = builder.launcher;
     }
 
     @Getter
@@ -73,6 +77,8 @@ public abstract class YCAgentConfig {
 
         private String tmpDir;
 
+        private ComputerLauncher launcher;
+
 
         public B withName(String name) {
             this.name = name;
@@ -143,6 +149,11 @@ public abstract class YCAgentConfig {
             return self();
         }
 
+        public B withLauncher(ComputerLauncher launcher) {
+            this.launcher = launcher;
+            return self();
+        }
+
         protected abstract B self();
 
         public abstract C build();
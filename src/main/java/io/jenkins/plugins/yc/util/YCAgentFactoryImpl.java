@@ -4,6 +4,7 @@ import hudson.Extension;
 import hudson.model.Descriptor;
 import io.jenkins.plugins.yc.YCAbstractSlave;
 import io.jenkins.plugins.yc.YCOndemandSlave;
+import io.jenkins.plugins.yc.YCUnixComputerLauncher;
 
 import java.io.IOException;
 
@@ -18,6 +19,7 @@ public class YCAgentFactoryImpl implements YCAgentFactory {
                 config.getCloudName(), config.getIdleTerminationMinutes(),
                 config.getInitScript(), config.getTmpDir(),
                 config.getNodeProperties(), config.getLaunchTimeout(),
-                config.isStopOnTerminate(), config.getNumExecutors());
+                config.isStopOnTerminate(), config.getNumExecutors(),
+                config.getLauncher() != null ? config.getLauncher() : new YCUnixComputerLauncher());
     }
 }
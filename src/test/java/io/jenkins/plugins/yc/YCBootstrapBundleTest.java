@@ -0,0 +1,149 @@
+package io.jenkins.plugins.yc;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class YCBootstrapBundleTest {
+
+    @Test
+    void archiveHasTheFilesAndTheScript() throws IOException {
+        byte[] jar = new byte[2000];
+        YCBootstrapBundle bundle = new YCBootstrapBundle("/tmp")
+                .withFile("init.sh", "apt install -y maven".getBytes(StandardCharsets.UTF_8), 0700)
+                .withFile("remoting.jar", YCBootstrapBundle.Artifact.of(jar), 0644)
+                .withScript("step init sh /tmp/init.sh || exit $?");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bundle.writeArchive(out);
+
+        try (TarArchiveInputStream in = new TarArchiveInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            TarArchiveEntry init = in.getNextTarEntry();
+            assertThat(init.getName(), is("init.sh"));
+            assertThat(init.getMode() & 07777, is(0700));
+            assertThat(new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8), is("apt install -y maven"));
+            TarArchiveEntry remoting = in.getNextTarEntry();
+            assertThat(remoting.getName(), is("remoting.jar"));
+            assertThat(remoting.getMode() & 07777, is(0644));
+            assertThat(IOUtils.toByteArray(in), is(jar));
+            TarArchiveEntry script = in.getNextTarEntry();
+            assertThat(script.getName(), is(YCBootstrapBundle.SCRIPT_NAME));
+            assertThat(script.getMode() & 07777, is(0700));
+            String content = new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+            assertThat(content, containsString("step() {"));
+            assertThat(content, containsString("step init sh /tmp/init.sh || exit $?\n"));
+            assertThat(in.getNextTarEntry(), nullValue());
+        }
+    }
+
+    @Test
+    void upToDateFilesAreNotSent() throws IOException {
+        YCBootstrapBundle.Artifact jar = YCBootstrapBundle.Artifact.of(new byte[2000]);
+        YCBootstrapBundle bundle = new YCBootstrapBundle("/tmp")
+                .withFile("init.sh", "apt install -y maven".getBytes(StandardCharsets.UTF_8), 0700)
+                .withFile("remoting.jar", jar, 0644);
+        String listing = "0000  init.sh\n"
+                + jar.getSha256() + " *remoting.jar\n"
+                + YCBootstrapBundle.DIGESTS_END + "\n"
+                + "yc-step init 0\n";
+        BufferedReader stdout = new BufferedReader(new StringReader(listing));
+        assertThat(bundle.readDigests(stdout, new PrintStream(new ByteArrayOutputStream(), true, "UTF-8")), is(true));
+        assertThat(bundle.getSkipped(), contains("remoting.jar"));
+        // the output of the script is left for the caller
+        assertThat(stdout.readLine(), is("yc-step init 0"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bundle.writeArchive(out);
+        try (TarArchiveInputStream in = new TarArchiveInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertThat(in.getNextTarEntry().getName(), is("init.sh"));
+            assertThat(in.getNextTarEntry().getName(), is(YCBootstrapBundle.SCRIPT_NAME));
+            assertThat(in.getNextTarEntry(), nullValue());
+        }
+    }
+
+    @Test
+    void sessionSendsOnlyTheChangedFiles() throws Exception {
+        YCBootstrapBundle.Artifact jar = YCBootstrapBundle.Artifact.of(new byte[2000]);
+        YCBootstrapBundle bundle = new YCBootstrapBundle("/tmp")
+                .withFile("init.sh", "apt install -y maven".getBytes(StandardCharsets.UTF_8), 0700)
+                .withFile("remoting.jar", jar, 0644)
+                .withScript("step init sh /tmp/init.sh || exit $?");
+        PipedInputStream remoteStdout = new PipedInputStream();
+        PipedOutputStream remoteStdin = new PipedOutputStream();
+        PipedInputStream archive = new PipedInputStream(remoteStdin);
+        OutputStream remote = new PipedOutputStream(remoteStdout);
+        // the remote side lists the digests, extracts the archive and runs the script
+        CompletableFuture<List<String>> extracted = CompletableFuture.supplyAsync(() -> {
+            try (OutputStream out = remote) {
+                out.write((jar.getSha256() + "  remoting.jar\n" + YCBootstrapBundle.DIGESTS_END + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                List<String> names = new ArrayList<>();
+                try (TarArchiveInputStream in = new TarArchiveInputStream(
+                        new ByteArrayInputStream(IOUtils.toByteArray(archive)))) {
+                    TarArchiveEntry entry;
+                    while ((entry = in.getNextTarEntry()) != null) {
+                        names.add(entry.getName());
+                    }
+                }
+                out.write("installing maven\nyc-info java openjdk 17\nyc-step init 0\n".getBytes(StandardCharsets.UTF_8));
+                return names;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        bundle.exchange(remoteStdout, remoteStdin, new PrintStream(log, true, "UTF-8"));
+
+        assertThat(extracted.get(10, TimeUnit.SECONDS), contains("init.sh", YCBootstrapBundle.SCRIPT_NAME));
+        assertThat(bundle.getSkipped(), contains("remoting.jar"));
+        assertThat(bundle.getResults().get("init"), is(0));
+        assertThat(bundle.getInfo().get("java"), is("openjdk 17"));
+        assertThat(log.toString("UTF-8"), is("installing maven" + System.lineSeparator()));
+    }
+
+    @Test
+    void failedCommandHasNoListing() throws IOException {
+        YCBootstrapBundle bundle = new YCBootstrapBundle("/tmp").withFile("init.sh", new byte[0], 0700);
+        BufferedReader stdout = new BufferedReader(new StringReader("mkdir: cannot create directory\n"));
+        assertThat(bundle.readDigests(stdout, new PrintStream(new ByteArrayOutputStream(), true, "UTF-8")), is(false));
+        assertThat(bundle.getSkipped(), empty());
+    }
+
+    @Test
+    void digestsAreListedInTheSameCommand() {
+        YCBootstrapBundle bundle = new YCBootstrapBundle("/tmp/agent").withFile("remoting.jar", new byte[0], 0644);
+        assertThat(bundle.command(), is("mkdir -p '/tmp/agent' && (cd '/tmp/agent' && sha256sum -- 'remoting.jar'"
+                + " </dev/null 2>/dev/null; echo yc-digests-end) && tar -xf - -C '/tmp/agent' && sh '/tmp/agent'/yc-bootstrap.sh"));
+        // without files sha256sum would read the archive from stdin
+        assertThat(new YCBootstrapBundle("/tmp").command(), is("mkdir -p '/tmp' && (echo yc-digests-end)"
+                + " && tar -xf - -C '/tmp' && sh '/tmp'/yc-bootstrap.sh"));
+    }
+
+    @Test
+    void quotesForTheShell() {
+        assertThat(YCBootstrapBundle.quote("/tmp/it's here"), is("'/tmp/it'\"'\"'s here'"));
+    }
+}
@@ -0,0 +1,136 @@
+package io.jenkins.plugins.yc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.jenkins.plugins.yc.util.DecorrelatedJitter;
+import org.junit.jupiter.api.Test;
+import yandex.cloud.api.compute.v1.InstanceServiceOuterClass;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class YCComputeClientTest {
+
+    private static final Metadata.Key<String> IDEMPOTENCY_KEY = Metadata.Key.of("Idempotency-Key", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final ClientInterceptor NO_AUTH = new ClientInterceptor() {
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+            return next.newCall(method, callOptions);
+        }
+    };
+
+    @Test
+    void retryableCodesAreRetriedUpToMaxAttempts() {
+        for (Status status : new Status[]{Status.UNAVAILABLE, Status.RESOURCE_EXHAUSTED}) {
+            FailingChannel channel = new FailingChannel(status);
+            assertFailsWith(client(channel).get("instance"), status.getCode());
+            assertThat(channel.getHeaders().size(), is(YCComputeClient.MAX_ATTEMPTS));
+        }
+    }
+
+    @Test
+    void otherCodesFailAtOnce() {
+        FailingChannel channel = new FailingChannel(Status.NOT_FOUND);
+        assertFailsWith(client(channel).get("instance"), Status.Code.NOT_FOUND);
+        assertThat(channel.getHeaders().size(), is(1));
+    }
+
+    @Test
+    void mutatingCallsKeepTheIdempotencyKey() {
+        FailingChannel channel = new FailingChannel(Status.UNAVAILABLE);
+        YCComputeClient client = client(channel);
+        assertFailsWith(client.create(InstanceServiceOuterClass.CreateInstanceRequest.getDefaultInstance()), Status.Code.UNAVAILABLE);
+        Set<String> keys = new HashSet<>();
+        for (Metadata headers : channel.getHeaders()) {
+            keys.add(headers.get(IDEMPOTENCY_KEY));
+        }
+        assertThat(channel.getHeaders().size(), is(YCComputeClient.MAX_ATTEMPTS));
+        assertThat(keys.size(), is(1));
+        String key = keys.iterator().next();
+        assertThat(key, notNullValue());
+
+        // every request gets its own key
+        assertFailsWith(client.stop("instance"), Status.Code.UNAVAILABLE);
+        assertThat(channel.getHeaders().get(YCComputeClient.MAX_ATTEMPTS).get(IDEMPOTENCY_KEY), not(key));
+    }
+
+    private static YCComputeClient client(Channel channel) {
+        return new YCComputeClient(channel, channel, NO_AUTH, 1000, new DecorrelatedJitter(1, 2));
+    }
+
+    private static void assertFailsWith(CompletableFuture<?> call, Status.Code code) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> call.get(10, TimeUnit.SECONDS));
+        assertThat(Status.fromThrowable(e.getCause()).getCode(), is(code));
+    }
+
+    /**
+     * Fails every call with the same status and records the headers of the calls.
+     */
+    private static final class FailingChannel extends Channel {
+
+        private final Status status;
+
+        private final List<Metadata> headers = Collections.synchronizedList(new ArrayList<>());
+
+        FailingChannel(Status status) {
+            this.status = status;
+        }
+
+        List<Metadata> getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+            return new ClientCall<ReqT, RespT>() {
+                private Listener<RespT> listener;
+
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    listener = responseListener;
+                    FailingChannel.this.headers.add(headers);
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(String message, Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                    listener.onClose(status, new Metadata());
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "compute.test";
+        }
+    }
+}
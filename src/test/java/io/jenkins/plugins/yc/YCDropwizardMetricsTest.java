@@ -0,0 +1,32 @@
+package io.jenkins.plugins.yc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+class YCDropwizardMetricsTest {
+
+    @Test
+    void componentsHaveNoDots() {
+        assertThat(YCDropwizardMetrics.component("yc.prod"), is("yc_prod"));
+        assertThat(YCDropwizardMetrics.component(" Ubuntu 22.04, 4 cores "), is("Ubuntu_22_04_4_cores"));
+        assertThat(YCDropwizardMetrics.component("build-agents_v2"), is("build-agents_v2"));
+        assertThat(YCDropwizardMetrics.component(""), is("unnamed"));
+        assertThat(YCDropwizardMetrics.component(null), is("unnamed"));
+    }
+
+    @Test
+    void longDescriptionsAreShortenedWithoutCollisions() {
+        char[] text = new char[200];
+        Arrays.fill(text, 'a');
+        String first = new String(text) + " first";
+        String second = new String(text) + " second";
+        assertThat(YCDropwizardMetrics.component(first).length(), is(64));
+        assertThat(YCDropwizardMetrics.component(first), not(YCDropwizardMetrics.component(second)));
+        assertThat(YCDropwizardMetrics.component(first), is(YCDropwizardMetrics.component(first)));
+    }
+}
@@ -0,0 +1,137 @@
+package io.jenkins.plugins.yc;
+
+import com.google.protobuf.Timestamp;
+import org.junit.jupiter.api.Test;
+import yandex.cloud.api.compute.v1.InstanceOuterClass;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class YCIdleSweeperTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private static InstanceOuterClass.Instance instance(InstanceOuterClass.Instance.Status status, long createdAgoMs) {
+        long created = System.currentTimeMillis() - createdAgoMs;
+        return InstanceOuterClass.Instance.newBuilder()
+                .setId("instance")
+                .setStatus(status)
+                .setCreatedAt(Timestamp.newBuilder().setSeconds(TimeUnit.MILLISECONDS.toSeconds(created)))
+                .build();
+    }
+
+    private static YCComputer computer(YCAbstractSlave node) {
+        YCComputer computer = mock(YCComputer.class);
+        when(computer.getNode()).thenReturn(node);
+        when(computer.getName()).thenReturn("agent");
+        return computer;
+    }
+
+    @Test
+    void launchTimeoutOfConnectingAgent() {
+        YCAbstractSlave node = mock(YCAbstractSlave.class);
+        when(node.getLaunchTimeoutInMillis()).thenReturn(MINUTE);
+        YCComputer computer = computer(node);
+        when(computer.isIdle()).thenReturn(true);
+        when(computer.isOffline()).thenReturn(true);
+        when(computer.isConnecting()).thenReturn(true);
+        YandexRetentionStrategy strategy = new YandexRetentionStrategy("30");
+
+        assertThat(strategy.evaluate(computer, instance(InstanceOuterClass.Instance.Status.RUNNING, 2 * MINUTE)),
+                is(YandexRetentionStrategy.Action.LAUNCH_TIMEOUT));
+        assertThat(strategy.evaluate(computer, instance(InstanceOuterClass.Instance.Status.RUNNING, MINUTE / 2)),
+                is(YandexRetentionStrategy.Action.NONE));
+        // not listed yet, checked again by the next sweep
+        assertThat(strategy.evaluate(computer, null), is(YandexRetentionStrategy.Action.NONE));
+    }
+
+    @Test
+    void idleTimeoutOfOnlineAgent() {
+        YCAbstractSlave node = mock(YCAbstractSlave.class);
+        YCComputer computer = computer(node);
+        when(computer.isIdle()).thenReturn(true);
+        when(computer.getIdleStartMilliseconds()).thenReturn(System.currentTimeMillis() - 30 * MINUTE);
+        YandexRetentionStrategy strategy = new YandexRetentionStrategy("10");
+
+        assertThat(strategy.evaluate(computer, instance(InstanceOuterClass.Instance.Status.RUNNING, 60 * MINUTE)),
+                is(YandexRetentionStrategy.Action.IDLE_TIMEOUT));
+        // already stopped on a previous idle timeout
+        assertThat(strategy.evaluate(computer, instance(InstanceOuterClass.Instance.Status.STOPPED, 60 * MINUTE)),
+                is(YandexRetentionStrategy.Action.NONE));
+
+        when(computer.getIdleStartMilliseconds()).thenReturn(System.currentTimeMillis() - MINUTE);
+        assertThat(strategy.evaluate(computer, instance(InstanceOuterClass.Instance.Status.RUNNING, 60 * MINUTE)),
+                is(YandexRetentionStrategy.Action.NONE));
+
+        when(computer.isIdle()).thenReturn(false);
+        when(computer.getIdleStartMilliseconds()).thenReturn(System.currentTimeMillis() - 30 * MINUTE);
+        assertThat(strategy.evaluate(computer, instance(InstanceOuterClass.Instance.Status.RUNNING, 60 * MINUTE)),
+                is(YandexRetentionStrategy.Action.NONE));
+    }
+
+    @Test
+    void zeroIdleTerminationMinutesNeverTimesOut() {
+        YCComputer computer = computer(mock(YCAbstractSlave.class));
+        when(computer.isIdle()).thenReturn(true);
+        YandexRetentionStrategy strategy = new YandexRetentionStrategy("");
+        assertThat(strategy.evaluate(computer, instance(InstanceOuterClass.Instance.Status.RUNNING, 60 * MINUTE)),
+                is(YandexRetentionStrategy.Action.NONE));
+    }
+
+    @Test
+    void operationsAreBatchedLaunchTimeoutsFirst() {
+        List<YCAbstractSlave> launchTimeouts = new ArrayList<>();
+        List<YCAbstractSlave> idleTimeouts = new ArrayList<>();
+        List<YCComputer> computers = new ArrayList<>();
+        // idle agents are listed first, the launch timeouts still go first
+        for (int i = 0; i < 2; i++) {
+            idleTimeouts.add(node(computers, YandexRetentionStrategy.Action.IDLE_TIMEOUT));
+        }
+        for (int i = 0; i < 3; i++) {
+            launchTimeouts.add(node(computers, YandexRetentionStrategy.Action.LAUNCH_TIMEOUT));
+        }
+        node(computers, YandexRetentionStrategy.Action.NONE);
+
+        assertThat(YCIdleSweeper.sweep(computers, Collections.emptyMap(), 4), is(1));
+        for (YCAbstractSlave node : launchTimeouts) {
+            verify(node).launchTimeout();
+        }
+        verify(idleTimeouts.get(0)).idleTimeout();
+        verify(idleTimeouts.get(1), never()).idleTimeout();
+
+        // the next sweep handles the rest
+        assertThat(YCIdleSweeper.sweep(computers.subList(1, 2), Collections.emptyMap(), 4), is(0));
+        verify(idleTimeouts.get(1), times(1)).idleTimeout();
+    }
+
+    @Test
+    void agentsBeingTerminatedAreSkipped() {
+        List<YCComputer> computers = new ArrayList<>();
+        YCAbstractSlave node = node(computers, YandexRetentionStrategy.Action.IDLE_TIMEOUT);
+        when(node.isAcceptingTasks()).thenReturn(false);
+        assertThat(YCIdleSweeper.sweep(computers, Collections.emptyMap(), 10), is(0));
+        verify(node, never()).idleTimeout();
+    }
+
+    private static YCAbstractSlave node(List<YCComputer> computers, YandexRetentionStrategy.Action action) {
+        YCAbstractSlave node = mock(YCAbstractSlave.class);
+        when(node.isAcceptingTasks()).thenReturn(true);
+        YandexRetentionStrategy strategy = mock(YandexRetentionStrategy.class);
+        when(strategy.evaluate(any(), any())).thenReturn(action);
+        doReturn(strategy).when(node).getRetentionStrategy();
+        computers.add(computer(node));
+        return node;
+    }
+}
@@ -0,0 +1,61 @@
+package io.jenkins.plugins.yc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+class YCImageCapabilitiesTest {
+
+    private static final String IMAGE = "test-image";
+
+    @AfterEach
+    void tearDown() {
+        YCImageCapabilities.forget(IMAGE);
+    }
+
+    @Test
+    void restartedInstanceIsNotRecorded() {
+        // java installed by an earlier launch of a stopped instance is not java of the image
+        assertThat(YCImageCapabilities.record(IMAGE, false, "openjdk full version \"11.0.20\"", null), is(false));
+        assertThat(YCImageCapabilities.get(IMAGE), nullValue());
+    }
+
+    @Test
+    void freshInstanceIsRecorded() {
+        assertThat(YCImageCapabilities.record(IMAGE, true, "openjdk full version \"11.0.20\"", null), is(true));
+        YCImageCapabilities.Capabilities capabilities = YCImageCapabilities.get(IMAGE);
+        assertThat(capabilities, notNullValue());
+        assertThat(capabilities.providesJava(null), is(true));
+        assertThat(capabilities.providesJava("apt install maven"), is(true));
+        assertThat(capabilities.isInitScriptApplied(), is(false));
+    }
+
+    @Test
+    void imageWithoutJavaNeedsInstall() {
+        assertThat(YCImageCapabilities.record(IMAGE, true, null, null), is(true));
+        YCImageCapabilities.Capabilities capabilities = YCImageCapabilities.get(IMAGE);
+        assertThat(capabilities.needsJavaInstall(), is(true));
+        assertThat(capabilities.providesJava(null), is(false));
+    }
+
+    @Test
+    void javaFromInitScriptIsTrustedOnlyWithTheSameScript() {
+        String initScript = "sudo apt install -y openjdk-17-jre-headless\n";
+        assertThat(YCImageCapabilities.record(IMAGE, true, "openjdk full version \"17.0.8\"", initScript), is(true));
+        YCImageCapabilities.Capabilities capabilities = YCImageCapabilities.get(IMAGE);
+        assertThat(capabilities.isInitScriptApplied(), is(true));
+        assertThat(capabilities.providesJava(initScript), is(true));
+        assertThat(capabilities.providesJava(null), is(false));
+        assertThat(capabilities.providesJava("echo hello"), is(false));
+    }
+
+    @Test
+    void blankImageKeyIsIgnored() {
+        assertThat(YCImageCapabilities.record("", true, null, null), is(false));
+        assertThat(YCImageCapabilities.get(null), nullValue());
+    }
+}
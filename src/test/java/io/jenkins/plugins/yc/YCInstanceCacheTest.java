@@ -0,0 +1,146 @@
+package io.jenkins.plugins.yc;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import yandex.cloud.api.compute.v1.InstanceOuterClass;
+import yandex.cloud.api.compute.v1.InstanceServiceOuterClass;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class YCInstanceCacheTest {
+
+    private static final String FOLDER = "folder";
+
+    private YandexTemplate template;
+
+    private YCInstanceCache cache;
+
+    @BeforeEach
+    void setUp() {
+        AbstractCloud cloud = mock(AbstractCloud.class);
+        template = mock(YandexTemplate.class);
+        when(template.getFolderId()).thenReturn(FOLDER);
+        doReturn(Collections.singletonList(template)).when(cloud).getTemplates();
+        when(cloud.getDisplayName()).thenReturn("cacheCloud");
+        cache = new YCInstanceCache(cloud);
+    }
+
+    @Test
+    void concurrentRefreshesIssueOneListing() throws Exception {
+        CountDownLatch listing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(template.listInstances(any())).thenAnswer(invocation -> {
+            listing.countDown();
+            release.await();
+            return page("", instance("a"));
+        });
+        int waiters = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(waiters + 1);
+        try {
+            Future<YCInstanceCache.Snapshot> owner = executor.submit(cache::refresh);
+            assertThat(listing.await(10, TimeUnit.SECONDS), is(true));
+            List<Future<YCInstanceCache.Snapshot>> joined = new ArrayList<>();
+            List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < waiters; i++) {
+                joined.add(executor.submit(() -> {
+                    threads.add(Thread.currentThread());
+                    return cache.refresh();
+                }));
+            }
+            awaitWaiting(threads, waiters);
+            release.countDown();
+            YCInstanceCache.Snapshot loaded = owner.get(10, TimeUnit.SECONDS);
+            for (Future<YCInstanceCache.Snapshot> result : joined) {
+                assertThat(result.get(10, TimeUnit.SECONDS), sameInstance(loaded));
+            }
+            verify(template, times(1)).listInstances(any());
+            assertThat(cache.getRefreshes(), is(1L));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void staleSnapshotIsRefreshedInTheBackground() throws Exception {
+        when(template.listInstances(any())).thenReturn(page("", instance("a")), page("", instance("a"), instance("b")));
+        // nothing loaded yet, the first lookup waits for the listing
+        assertThat(cache.getCachedInstances(FOLDER).size(), is(1));
+        cache.invalidate();
+        // the stale snapshot is returned at once
+        assertThat(cache.getCachedInstances(FOLDER).size(), is(1));
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (cache.getRefreshes() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(cache.getRefreshes(), is(2L));
+        assertThat(cache.getCachedInstances(FOLDER).size(), is(2));
+    }
+
+    @Test
+    void pagesAreFollowed() throws Exception {
+        when(template.listInstances(any())).thenReturn(page("page-2", instance("a")), page("", instance("b")));
+        cache.refresh();
+        assertThat(cache.getSize(), is(2));
+        assertThat(cache.getInstance("b"), notNullValue());
+        verify(template).listInstances(argThat(request -> request.getPageToken().isEmpty() && FOLDER.equals(request.getFolderId())));
+        verify(template).listInstances(argThat(request -> "page-2".equals(request.getPageToken())));
+    }
+
+    @Test
+    void failedRefreshKeepsThePreviousSnapshot() throws Exception {
+        when(template.listInstances(any())).thenReturn(page("", instance("a")))
+                .thenThrow(new IllegalStateException("listing failed"));
+        YCInstanceCache.Snapshot loaded = cache.refresh();
+        assertThrows(IllegalStateException.class, cache::refresh);
+        assertThat(cache.getFailedRefreshes(), is(1L));
+        assertThat(cache.getSize(), is(1));
+        assertThat(cache.getLastRefreshTime(), is(loaded.getTime()));
+        assertThat(cache.getCachedInstances(FOLDER).size(), is(1));
+    }
+
+    private static void awaitWaiting(List<Thread> threads, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (threads) {
+                // parked in the wait for the running listing
+                if (threads.size() == count && threads.stream().allMatch(t -> t.getState() == Thread.State.WAITING)) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static InstanceOuterClass.Instance instance(String id) {
+        return InstanceOuterClass.Instance.newBuilder().setId(id).setFolderId(FOLDER).build();
+    }
+
+    private static InstanceServiceOuterClass.ListInstancesResponse page(String nextPageToken, InstanceOuterClass.Instance... instances) {
+        InstanceServiceOuterClass.ListInstancesResponse.Builder response = InstanceServiceOuterClass.ListInstancesResponse.newBuilder()
+                .setNextPageToken(nextPageToken);
+        for (InstanceOuterClass.Instance instance : instances) {
+            response.addInstances(instance);
+        }
+        return response.build();
+    }
+}
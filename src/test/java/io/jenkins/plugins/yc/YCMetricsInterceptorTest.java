@@ -0,0 +1,51 @@
+package io.jenkins.plugins.yc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import yandex.cloud.api.compute.v1.InstanceServiceGrpc;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class YCMetricsInterceptorTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void countsCallsByMethodAndStatus() {
+        Channel channel = mock(Channel.class);
+        ClientCall<Object, Object> call = mock(ClientCall.class);
+        when(channel.newCall(any(), any())).thenReturn((ClientCall) call);
+        YCMetricsInterceptor metrics = new YCMetricsInterceptor();
+
+        ClientCall<?, ?> first = metrics.interceptCall(InstanceServiceGrpc.getGetMethod(), CallOptions.DEFAULT, channel);
+        first.start(mock(ClientCall.Listener.class), new Metadata());
+        ClientCall<?, ?> retry = metrics.interceptCall(InstanceServiceGrpc.getGetMethod(),
+                CallOptions.DEFAULT.withOption(YCMetricsInterceptor.ATTEMPT, 1), channel);
+        retry.start(mock(ClientCall.Listener.class), new Metadata());
+
+        YCMetricsInterceptor.MethodStats stats = metrics.getMethods().get(0);
+        assertThat(stats.getMethod(), is("InstanceService/Get"));
+        assertThat(stats.getCalls(), is(2L));
+        assertThat(stats.getRetries(), is(1L));
+        assertThat(stats.getInFlight(), is(2));
+
+        ArgumentCaptor<ClientCall.Listener<Object>> listeners = ArgumentCaptor.forClass(ClientCall.Listener.class);
+        verify(call, times(2)).start(listeners.capture(), any());
+        listeners.getAllValues().get(0).onClose(Status.OK, new Metadata());
+        listeners.getAllValues().get(1).onClose(Status.UNAVAILABLE, new Metadata());
+
+        assertThat(stats.getInFlight(), is(0));
+        assertThat(stats.getErrors(), is(1L));
+        assertThat(stats.getStatusCodes(), is("OK: 1, UNAVAILABLE: 1"));
+    }
+}
@@ -0,0 +1,70 @@
+package io.jenkins.plugins.yc;
+
+import hudson.model.Node;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+@WithJenkins
+class YCNodeIndexTest {
+
+    private JenkinsRule j;
+
+    @BeforeEach
+    void setUp(JenkinsRule rule) {
+        j = rule;
+        // the index is shared by the controllers of the previous tests
+        YCNodeIndex.reload();
+    }
+
+    @Test
+    void addedAndRemovedNodes() throws Exception {
+        YCOndemandSlave agent = agent("agent-1", "instance-1");
+        j.jenkins.addNode(agent);
+        assertThat(YCNodeIndex.get("instance-1"), sameInstance(agent));
+        assertThat(YCNodeIndex.getNodes("indexCloud", "indexTemplate"), contains(agent));
+        assertThat(YCNodeIndex.getNodes("indexCloud"), contains(agent));
+        assertThat(YCNodeIndex.getNodes("otherCloud"), empty());
+
+        j.jenkins.removeNode(agent);
+        assertThat(YCNodeIndex.get("instance-1"), nullValue());
+        assertThat(YCNodeIndex.getNodes("indexCloud", "indexTemplate"), empty());
+    }
+
+    @Test
+    void renamedNode() throws Exception {
+        YCOndemandSlave agent = agent("agent-1", "instance-1");
+        j.jenkins.addNode(agent);
+        YCOndemandSlave renamed = agent("agent-2", "instance-1");
+        j.jenkins.getNodesObject().replaceNode(agent, renamed);
+        assertThat(YCNodeIndex.get("instance-1"), sameInstance(renamed));
+        assertThat(YCNodeIndex.getNodes("indexCloud", "indexTemplate"), contains(renamed));
+    }
+
+    @Test
+    void reloadedAfterRestart() throws Exception {
+        YCOndemandSlave agent = agent("agent-1", "instance-1");
+        j.jenkins.addNode(agent);
+        YCNodeIndex.reload();
+        assertThat(YCNodeIndex.get("instance-1"), sameInstance(agent));
+        assertThat(YCNodeIndex.getNodes("indexCloud", "indexTemplate").size(), is(1));
+        assertThat(YCNodeIndex.get("instance-2"), nullValue());
+        assertThat(YCNodeIndex.get(null), nullValue());
+    }
+
+    private static YCOndemandSlave agent(String name, String instanceId) throws Exception {
+        return new YCOndemandSlave(name, instanceId, "indexTemplate", "/tmp/hudson", 1, "index",
+                new YCInboundComputerLauncher(), Node.Mode.NORMAL, null, "/tmp", Collections.emptyList(),
+                false, "30", Collections.emptyList(), "indexCloud", 0);
+    }
+}
@@ -0,0 +1,152 @@
+package io.jenkins.plugins.yc;
+
+import com.google.rpc.Status;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.jenkins.plugins.yc.exception.OperationFailed;
+import io.jenkins.plugins.yc.exception.YandexClientException;
+import io.jenkins.plugins.yc.util.ExponentialBackoff;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import yandex.cloud.api.operation.OperationOuterClass;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class YCOperationTrackerTest {
+
+    private static final OperationOuterClass.Operation RUNNING = OperationOuterClass.Operation.newBuilder()
+            .setId("operation")
+            .setDescription("Create instance")
+            .build();
+
+    private final AtomicLong now = new AtomicLong();
+
+    private ExponentialBackoff backoff;
+
+    @BeforeEach
+    void setUp() {
+        backoff = mock(ExponentialBackoff.class);
+        when(backoff.delay(anyInt())).thenReturn(1L);
+    }
+
+    @Test
+    void pollsWithGrowingBackoffUntilDone() throws Exception {
+        OperationChannel channel = new OperationChannel(3, RUNNING.toBuilder().setDone(true).build(), 0);
+        YCOperationTracker tracker = new YCOperationTracker(channel, backoff, TimeUnit.MINUTES.toMillis(1), now::get);
+
+        OperationOuterClass.Operation done = tracker.await(RUNNING).get(10, TimeUnit.SECONDS);
+        assertThat(done.getDone(), is(true));
+        assertThat(channel.getReads(), is(3));
+        InOrder delays = inOrder(backoff);
+        delays.verify(backoff).delay(0);
+        delays.verify(backoff).delay(1);
+        delays.verify(backoff).delay(2);
+    }
+
+    @Test
+    void failsAfterTheTimeout() {
+        OperationChannel channel = new OperationChannel(Integer.MAX_VALUE, RUNNING, 600);
+        YCOperationTracker tracker = new YCOperationTracker(channel, backoff, 1000, now::get);
+
+        CompletableFuture<OperationOuterClass.Operation> result = tracker.await(RUNNING);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        assertThat(e.getCause(), instanceOf(YandexClientException.class));
+        // read at 0 and 600ms, the deadline has passed after the second read
+        assertThat(channel.getReads(), is(2));
+    }
+
+    @Test
+    void operationErrorIsMappedToItsCode() {
+        OperationOuterClass.Operation failed = RUNNING.toBuilder()
+                .setDone(true)
+                .setError(Status.newBuilder().setCode(io.grpc.Status.Code.RESOURCE_EXHAUSTED.value()).setMessage("Quota limit exceeded"))
+                .build();
+        YCOperationTracker tracker = new YCOperationTracker(new OperationChannel(0, failed, 0), backoff,
+                TimeUnit.MINUTES.toMillis(1), now::get);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> tracker.await(failed).get(10, TimeUnit.SECONDS));
+        assertThat(e.getCause(), instanceOf(OperationFailed.class));
+        assertThat(((OperationFailed) e.getCause()).getCode(), is(io.grpc.Status.Code.RESOURCE_EXHAUSTED.value()));
+        assertThat(YCPreemption.isCapacityUnavailable(e.getCause()), is(true));
+    }
+
+    /**
+     * Answers reads of the operation: not done until the given read, then the final operation. Every read advances
+     * the clock by the given step.
+     */
+    private final class OperationChannel extends Channel {
+
+        private final int doneAtRead;
+
+        private final OperationOuterClass.Operation last;
+
+        private final long step;
+
+        private final AtomicInteger reads = new AtomicInteger();
+
+        OperationChannel(int doneAtRead, OperationOuterClass.Operation last, long step) {
+            this.doneAtRead = doneAtRead;
+            this.last = last;
+            this.step = step;
+        }
+
+        int getReads() {
+            return reads.get();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+            return new ClientCall<ReqT, RespT>() {
+                private Listener<RespT> listener;
+
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    listener = responseListener;
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(String message, Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                    now.addAndGet(step);
+                    int read = reads.incrementAndGet();
+                    listener.onMessage((RespT) (read >= doneAtRead ? last : RUNNING));
+                    listener.onClose(io.grpc.Status.OK, new Metadata());
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "operation.test";
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.jenkins.plugins.yc;
+
+import org.junit.jupiter.api.Test;
+import yandex.cloud.api.compute.v1.InstanceOuterClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class YCPreemptionTest {
+
+    private static InstanceOuterClass.Instance instance(boolean preemptible, InstanceOuterClass.Instance.Status status) {
+        return InstanceOuterClass.Instance.newBuilder()
+                .setId("instance")
+                .setStatus(status)
+                .setSchedulingPolicy(InstanceOuterClass.SchedulingPolicy.newBuilder().setPreemptible(preemptible))
+                .build();
+    }
+
+    private static YCComputer computer(YCAbstractSlave node, boolean online, int busy) {
+        YCComputer computer = mock(YCComputer.class);
+        when(computer.getNode()).thenReturn(node);
+        when(computer.isOnline()).thenReturn(online);
+        when(computer.countBusy()).thenReturn(busy);
+        return computer;
+    }
+
+    @Test
+    void stoppedWhileInUseIsPreempted() {
+        YCAbstractSlave node = mock(YCAbstractSlave.class);
+        YCComputer computer = computer(node, true, 1);
+        assertThat(YCPreemption.isPreempted(computer, instance(true, InstanceOuterClass.Instance.Status.STOPPING)), is(true));
+        assertThat(YCPreemption.isPreempted(computer, instance(true, InstanceOuterClass.Instance.Status.STOPPED)), is(true));
+        assertThat(YCPreemption.isPreempted(computer, instance(true, InstanceOuterClass.Instance.Status.RUNNING)), is(false));
+        assertThat(YCPreemption.isPreempted(computer, instance(false, InstanceOuterClass.Instance.Status.STOPPED)), is(false));
+        assertThat(YCPreemption.isPreempted(computer, null), is(false));
+    }
+
+    @Test
+    void stopRequestedByThePluginIsNotPreemption() {
+        YCAbstractSlave node = mock(YCAbstractSlave.class);
+        when(node.isStopRequested()).thenReturn(true);
+        // the agent stays online until the stop operation completes
+        YCComputer computer = computer(node, true, 0);
+        assertThat(YCPreemption.isPreempted(computer, instance(true, InstanceOuterClass.Instance.Status.STOPPING)), is(false));
+    }
+
+    @Test
+    void idleDisconnectedAgentIsNotPreempted() {
+        YCComputer computer = computer(mock(YCAbstractSlave.class), false, 0);
+        assertThat(YCPreemption.isPreempted(computer, instance(true, InstanceOuterClass.Instance.Status.STOPPED)), is(false));
+    }
+}
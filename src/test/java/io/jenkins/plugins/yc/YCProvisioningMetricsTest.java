@@ -0,0 +1,75 @@
+package io.jenkins.plugins.yc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+class YCProvisioningMetricsTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    void phasesAreTimedFromThePreviousPhase() {
+        YCProvisioningMetrics.createRequested("ordering", "t1", "agent-ordering", START);
+        YCProvisioningMetrics.reached("agent-ordering", YCProvisioningMetrics.Phase.RUNNING, START + 20000);
+        YCProvisioningMetrics.reached("agent-ordering", YCProvisioningMetrics.Phase.SSH_REACHABLE, START + 25000);
+        // a reconnect reaches an earlier phase again
+        YCProvisioningMetrics.reached("agent-ordering", YCProvisioningMetrics.Phase.RUNNING, START + 26000);
+        YCProvisioningMetrics.reached("agent-ordering", YCProvisioningMetrics.Phase.ONLINE, START + 30000);
+
+        List<YCProvisioningMetrics.Row> rows = YCProvisioningMetrics.getRows("ordering");
+        assertThat(rows.size(), is(4));
+        assertRow(rows.get(0), "Create request to RUNNING", "20.0s");
+        assertRow(rows.get(1), "RUNNING to SSH reachable", "5.0s");
+        // the skipped authentication phase is counted into the online phase
+        assertRow(rows.get(2), "Authenticated to remoting online", "5.0s");
+        assertRow(rows.get(3), "Create request to agent online", "30.0s");
+
+        // not followed after it came online
+        YCProvisioningMetrics.reached("agent-ordering", YCProvisioningMetrics.Phase.ONLINE, START + 40000);
+        assertThat(YCProvisioningMetrics.getRows("ordering").get(2).getCount(), is(1L));
+    }
+
+    @Test
+    void forgottenAgentIsNotRecorded() {
+        YCProvisioningMetrics.createRequested("forget", "t1", "agent-forget", START);
+        YCProvisioningMetrics.forget("agent-forget");
+        YCProvisioningMetrics.reached("agent-forget", YCProvisioningMetrics.Phase.RUNNING, START + 20000);
+        assertThat(YCProvisioningMetrics.getRows("forget"), empty());
+    }
+
+    @Test
+    void agentsOverTheProvisionTimeAreDropped() {
+        YCProvisioningMetrics.createRequested("timeout", "t1", "agent-late", START);
+        YCProvisioningMetrics.reached("agent-late", YCProvisioningMetrics.Phase.RUNNING, START + TimeUnit.HOURS.toMillis(2));
+        assertThat(YCProvisioningMetrics.getRows("timeout"), empty());
+
+        YCProvisioningMetrics.createRequested("timeout", "t1", "agent-stale", START);
+        // the next create request drops the agents which never came online
+        YCProvisioningMetrics.createRequested("timeout", "t1", "agent-next", START + TimeUnit.HOURS.toMillis(2));
+        YCProvisioningMetrics.reached("agent-stale", YCProvisioningMetrics.Phase.RUNNING, START + TimeUnit.HOURS.toMillis(2));
+        assertThat(YCProvisioningMetrics.getRows("timeout"), empty());
+        YCProvisioningMetrics.forget("agent-next");
+    }
+
+    @Test
+    void histogramsAreExportedForPrometheus() {
+        YCProvisioningMetrics.createRequested("prometheus", "t \"1\"", "agent-prometheus", START);
+        YCProvisioningMetrics.reached("agent-prometheus", YCProvisioningMetrics.Phase.RUNNING, START + 1500);
+        assertThat(YCProvisioningMetrics.toPrometheus(), containsString(
+                "yc_agent_provisioning_phase_seconds_bucket{cloud=\"prometheus\",template=\"t \\\"1\\\"\",phase=\"running\",le=\"2.000\"} 1\n"));
+        YCProvisioningMetrics.forget("agent-prometheus");
+    }
+
+    private static void assertRow(YCProvisioningMetrics.Row row, String phase, String mean) {
+        assertThat(row.getPhase(), is(phase));
+        assertThat(row.getCount(), is(1L));
+        assertThat(row.getMean(), is(mean));
+    }
+}
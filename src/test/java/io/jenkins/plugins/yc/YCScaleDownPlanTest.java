@@ -0,0 +1,64 @@
+package io.jenkins.plugins.yc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class YCScaleDownPlanTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long CREATED = 1_700_000_000_000L;
+
+    @Test
+    void perSecondKeepsAgentWhileCheaperThanProvisioning() {
+        long idleSince = CREATED + 10 * MINUTE;
+        YCScaleDownPlan plan = YCScaleDownPlan.plan(YCBillingModel.PER_SECOND, CREATED, idleSince, MINUTE,
+                2 * MINUTE, 3 * MINUTE, idleSince);
+        assertThat(plan.getTerminateAt(), is(idleSince + 3 * MINUTE));
+        assertThat(plan.getKeepCost(), is(3 * MINUTE));
+        assertThat(plan.getReuseSaving(), is(3 * MINUTE));
+        assertThat(plan.isDue(idleSince + 3 * MINUTE - 1), is(false));
+        assertThat(plan.isDue(idleSince + 3 * MINUTE), is(true));
+    }
+
+    @Test
+    void perSecondHonorsIdleTimeout() {
+        long idleSince = CREATED + 10 * MINUTE;
+        YCScaleDownPlan plan = YCScaleDownPlan.plan(YCBillingModel.PER_SECOND, CREATED, idleSince, 30 * MINUTE,
+                2 * MINUTE, 3 * MINUTE, idleSince);
+        assertThat(plan.getTerminateAt(), is(idleSince + 30 * MINUTE));
+        assertThat(plan.getReason(), is("idle timeout"));
+    }
+
+    @Test
+    void perSecondUsesUpMinimumCharge() {
+        long idleSince = CREATED + TimeUnit.SECONDS.toMillis(5);
+        YCScaleDownPlan plan = YCScaleDownPlan.plan(YCBillingModel.PER_SECOND, CREATED, idleSince, 0,
+                2 * MINUTE, TimeUnit.SECONDS.toMillis(10), idleSince);
+        // a new agent would be charged the minute anyway
+        assertThat(plan.getTerminateAt(), is(idleSince + MINUTE));
+        assertThat(plan.getKeepCost(), is(idleSince + MINUTE - (CREATED + MINUTE)));
+    }
+
+    @Test
+    void perHourWaitsForEndOfPaidHour() {
+        long idleSince = CREATED + 10 * MINUTE;
+        YCScaleDownPlan plan = YCScaleDownPlan.plan(YCBillingModel.PER_HOUR, CREATED, idleSince, 5 * MINUTE,
+                2 * MINUTE, 3 * MINUTE, idleSince);
+        assertThat(plan.getTerminateAt(), is(CREATED + 58 * MINUTE));
+        assertThat(plan.getKeepCost(), is(0L));
+    }
+
+    @Test
+    void perHourWithinMarginScalesDownAtIdleTimeout() {
+        long idleSince = CREATED + 64 * MINUTE;
+        YCScaleDownPlan plan = YCScaleDownPlan.plan(YCBillingModel.PER_HOUR, CREATED, idleSince, 0,
+                60 * MINUTE, 3 * MINUTE, idleSince);
+        assertThat(plan.getTerminateAt(), is(idleSince));
+        assertThat(plan.isDue(idleSince), is(true));
+    }
+}
@@ -0,0 +1,112 @@
+package io.jenkins.plugins.yc;
+
+import io.jenkins.plugins.yc.util.ExponentialBackoff;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class YCSshProberTest {
+
+    private static final String HOST = "127.0.0.1";
+
+    private static final YCSshProber PROBER = new YCSshProber(300, new ExponentialBackoff(10, 50, 2));
+
+    private ServerSocket server;
+
+    private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getByName(HOST));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+    }
+
+    @Test
+    void bannerInTwoChunks() throws Exception {
+        serve((connection, out) -> {
+            out.write("SS".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            Thread.sleep(100);
+            out.write("H-2.0-OpenSSH_8.9\r\n".getBytes(StandardCharsets.US_ASCII));
+        });
+        assertThat(PROBER.awaitSsh(HOST, server.getLocalPort(), 10000).get(10, TimeUnit.SECONDS), is(HOST));
+    }
+
+    @Test
+    void linesBeforeTheBanner() throws Exception {
+        serve((connection, out) -> out.write("Authorized use only\r\nSSHD starting\r\nSSH-2.0-OpenSSH_8.9\r\n"
+                .getBytes(StandardCharsets.US_ASCII)));
+        assertThat(PROBER.awaitSsh(HOST, server.getLocalPort(), 10000).get(10, TimeUnit.SECONDS), is(HOST));
+    }
+
+    @Test
+    void silentServerIsRetriedAfterTheConnectTimeout() throws Exception {
+        serve((connection, out) -> {
+            // the first connection is accepted, but no banner is sent
+            if (connection > 0) {
+                out.write("SSH-2.0-OpenSSH_8.9\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+        });
+        assertThat(PROBER.awaitSsh(HOST, server.getLocalPort(), 10000).get(10, TimeUnit.SECONDS), is(HOST));
+        assertThat(accepted.size(), is(2));
+    }
+
+    @Test
+    void timesOutWithoutBanner() throws Exception {
+        serve((connection, out) -> {
+        });
+        CompletableFuture<String> ready = PROBER.awaitSsh(HOST, server.getLocalPort(), 1000);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> ready.get(10, TimeUnit.SECONDS));
+        assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        // the silent connections were retried until the overall timeout
+        assertThat(accepted.size() > 1, is(true));
+    }
+
+    private void serve(Handler handler) {
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    int connection = accepted.size();
+                    accepted.add(socket);
+                    OutputStream out = socket.getOutputStream();
+                    handler.handle(connection, out);
+                    out.flush();
+                }
+            } catch (Exception e) {
+                // closed by the test
+            }
+        }, "SSH server of " + getClass().getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private interface Handler {
+        void handle(int connection, OutputStream out) throws Exception;
+    }
+}
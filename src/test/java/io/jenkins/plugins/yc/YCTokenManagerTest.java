@@ -0,0 +1,123 @@
+package io.jenkins.plugins.yc;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import yandex.cloud.sdk.auth.IamToken;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class YCTokenManagerTest {
+
+    private static final Duration LIFETIME = Duration.ofHours(12);
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+
+    private final AtomicInteger minted = new AtomicInteger();
+
+    private volatile boolean failing;
+
+    private ScheduledExecutorService scheduler;
+
+    private YCTokenManager manager;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = mock(ScheduledExecutorService.class);
+        doReturn(mock(ScheduledFuture.class)).when(scheduler).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        Callable<IamToken> minter = () -> {
+            if (failing) {
+                throw new IllegalStateException("IAM is unavailable");
+            }
+            return new IamToken("token-" + minted.incrementAndGet(), clock.instant().plus(LIFETIME));
+        };
+        manager = new YCTokenManager("credentials", minter, clock, () -> scheduler);
+    }
+
+    @Test
+    void refreshedAtHalfLife() {
+        IamToken first = manager.get();
+        assertThat(first.getToken(), is("token-1"));
+        ArgumentCaptor<Runnable> refresh = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(refresh.capture(), eq(LIFETIME.toMillis() / 2), eq(TimeUnit.MILLISECONDS));
+
+        clock.advance(LIFETIME.dividedBy(2));
+        refresh.getValue().run();
+        assertThat(manager.get().getToken(), is("token-2"));
+        assertThat(minted.get(), is(2));
+    }
+
+    @Test
+    void blocksOnlyWithoutValidToken() {
+        IamToken first = manager.get();
+        clock.advance(LIFETIME.minusMinutes(2));
+        // still valid, the cached token is returned without minting
+        assertThat(manager.get(), sameInstance(first));
+        assertThat(minted.get(), is(1));
+
+        // expires within the gap, the caller mints a new one
+        clock.advance(Duration.ofMinutes(1).plusSeconds(30));
+        assertThat(manager.get().getToken(), is("token-2"));
+        assertThat(minted.get(), is(2));
+    }
+
+    @Test
+    void failedRefreshKeepsValidToken() {
+        IamToken first = manager.get();
+        ArgumentCaptor<Runnable> refresh = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(refresh.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+        failing = true;
+        clock.advance(LIFETIME.dividedBy(2));
+        refresh.getValue().run();
+        assertThat(manager.get(), sameInstance(first));
+        assertThat(minted.get(), is(1));
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
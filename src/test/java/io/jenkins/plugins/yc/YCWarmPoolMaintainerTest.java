@@ -0,0 +1,87 @@
+package io.jenkins.plugins.yc;
+
+import hudson.model.Node;
+import hudson.slaves.NodeProvisioner;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class YCWarmPoolMaintainerTest {
+
+    @Test
+    void refillsWhatIsMissing() {
+        assertThat(YCWarmPoolMaintainer.missing(3, 1, 0, 0), is(2));
+        // connecting agents and agents being created count toward the pool
+        assertThat(YCWarmPoolMaintainer.missing(3, 1, 1, 0), is(1));
+        assertThat(YCWarmPoolMaintainer.missing(1, 2, 0, 0), is(0));
+        assertThat(YCWarmPoolMaintainer.missing(5, 0, 0, 2), is(2));
+    }
+
+    @Test
+    void onlyAgentIsRetainedUntilReplacementIsPending() {
+        YCAbstractSlave agent = agent("agent-a");
+        List<YCAbstractSlave> ready = Collections.singletonList(agent);
+        assertThat(YCWarmPoolMaintainer.isRetained(agent, ready, 1, 0), is(true));
+        assertThat(YCWarmPoolMaintainer.isRetained(agent, ready, 1, 1), is(false));
+    }
+
+    @Test
+    void firstAgentsByNameAreRetained() {
+        YCAbstractSlave a = agent("agent-a");
+        YCAbstractSlave b = agent("agent-b");
+        YCAbstractSlave c = agent("agent-c");
+        List<YCAbstractSlave> ready = Arrays.asList(c, a, b);
+        assertThat(YCWarmPoolMaintainer.isRetained(a, ready, 2, 0), is(true));
+        assertThat(YCWarmPoolMaintainer.isRetained(b, ready, 2, 0), is(true));
+        assertThat(YCWarmPoolMaintainer.isRetained(c, ready, 2, 0), is(false));
+        assertThat(YCWarmPoolMaintainer.isRetained(b, ready, 2, 1), is(false));
+        assertThat(YCWarmPoolMaintainer.isRetained(a, ready, 0, 0), is(false));
+    }
+
+    @Test
+    void agentsBeingCreatedAreClaimedOnce() throws Exception {
+        YandexCloud cloud = mock(YandexCloud.class);
+        YandexTemplate t = mock(YandexTemplate.class);
+        doReturn(cloud).when(t).getParent();
+        when(t.getDescription()).thenReturn("claim-test");
+        when(t.getNumExecutors()).thenReturn(1);
+        CompletableFuture<YCAbstractSlave> first = new CompletableFuture<>();
+        CompletableFuture<YCAbstractSlave> second = new CompletableFuture<>();
+        when(cloud.getNewOrExistingAvailableSlave(eq(t), anyInt(), eq(false))).thenReturn(Arrays.asList(first, second));
+        CompletableFuture<Node> firstNode = new CompletableFuture<>();
+        CompletableFuture<Node> secondNode = new CompletableFuture<>();
+        when(cloud.awaitRunning(eq(t), any())).thenReturn(firstNode, secondNode);
+
+        YCWarmPoolMaintainer.provisionAhead(cloud, t, 2);
+
+        List<NodeProvisioner.PlannedNode> claimed = YCWarmPoolMaintainer.claim(t, 1);
+        assertThat(claimed.size(), is(1));
+        assertThat(claimed.get(0).future == firstNode, is(true));
+        assertThat(YCWarmPoolMaintainer.claim(t, 5).size(), is(1));
+        assertThat(YCWarmPoolMaintainer.claim(t, 5), empty());
+
+        // claimed agents are added by the caller, not by the maintainer
+        firstNode.complete(mock(YCAbstractSlave.class));
+        secondNode.completeExceptionally(new IllegalStateException("create failed"));
+        assertThat(YCWarmPoolMaintainer.claim(t, 5), empty());
+    }
+
+    private static YCAbstractSlave agent(String name) {
+        YCAbstractSlave agent = mock(YCAbstractSlave.class);
+        when(agent.getNodeName()).thenReturn(name);
+        return agent;
+    }
+}
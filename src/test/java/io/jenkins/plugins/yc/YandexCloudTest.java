@@ -6,10 +6,17 @@ import com.cloudbees.plugins.credentials.CredentialsScope;
 import com.cloudbees.plugins.credentials.CredentialsStore;
 import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
 import com.cloudbees.plugins.credentials.domains.Domain;
+import com.google.protobuf.Any;
 import hudson.model.FileParameterValue;
+import hudson.model.Label;
 import hudson.model.Node;
+import hudson.slaves.SlaveComputer;
 import hudson.util.ListBoxModel;
+import hudson.util.StreamTaskListener;
+import io.grpc.Status;
+import io.jenkins.plugins.yc.exception.OperationFailed;
 import jenkins.model.Jenkins;
+import jenkins.slaves.JnlpAgentReceiver;
 import org.jenkinsci.plugins.plaincredentials.impl.FileCredentialsImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -21,18 +28,35 @@ import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import yandex.cloud.api.compute.v1.InstanceOuterClass;
+import yandex.cloud.api.compute.v1.InstanceServiceOuterClass;
+import yandex.cloud.api.operation.OperationOuterClass;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.when;
 
 @WithJenkins
@@ -201,6 +225,166 @@ class YandexCloudTest {
         assertNotNull(mockedYandexTemplate.createVm());
     }
 
+    @Test
+    void vmTemplateParsedOnceTest() throws Exception {
+        YCVmTemplate parsed = mockedYandexTemplate.getVmTemplate();
+        assertThat(parsed.getFormat(), is(YCVmTemplate.Format.YAML));
+        mockedYandexTemplate.createVm();
+        assertThat(mockedYandexTemplate.getVmTemplate(), sameInstance(parsed));
+        assertThat(YCVmTemplate.parse("not: [valid").isValid(), is(false));
+    }
+
+    @Test
+    void provisioningLocksPerTemplateTest() throws Exception {
+        YandexTemplate first = new YandexTemplate("first", "", "first", Node.Mode.NORMAL, "first",
+                null, "/tmp/hadson", "/tmp", null, false, null, 0);
+        YandexTemplate second = new YandexTemplate("second", "", "second", Node.Mode.NORMAL, "second",
+                null, "/tmp/hadson", "/tmp", null, false, null, 0);
+        YandexCloud cloud = new YandexCloud("locksCloud", Arrays.asList(first, second), credId, credId, 300000);
+        assertThat(cloud.getProvisioningLock(first), sameInstance(cloud.getProvisioningLock(first)));
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            cloud.getProvisioningLock(first).lock();
+            try {
+                locked.countDown();
+                done.await();
+            } catch (InterruptedException ignored) {
+            } finally {
+                cloud.getProvisioningLock(first).unlock();
+            }
+        });
+        holder.start();
+        try {
+            assertThat(locked.await(10, TimeUnit.SECONDS), is(true));
+            // a template being provisioned doesn't block the other templates of the cloud
+            assertThat(cloud.getProvisioningLock(second).tryLock(), is(true));
+            cloud.getProvisioningLock(second).unlock();
+            assertThat(cloud.getProvisioningLock(first).tryLock(), is(false));
+        } finally {
+            done.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    void preemptibleFallbackTest() throws Exception {
+        assertThat(mockedYandexTemplate.isPreemptibleFallback(), is(true));
+        List<InstanceServiceOuterClass.CreateInstanceRequest> requests = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            InstanceServiceOuterClass.CreateInstanceRequest request = invocation.getArgument(0);
+            requests.add(request);
+            if (request.getSchedulingPolicy().getPreemptible()) {
+                return CompletableFuture.failedFuture(new OperationFailed("no capacity", Status.Code.RESOURCE_EXHAUSTED.value()));
+            }
+            return CompletableFuture.completedFuture(OperationOuterClass.Operation.getDefaultInstance());
+        }).when(mockedYandexTemplate).createInstance(Mockito.any());
+        InstanceServiceOuterClass.CreateInstanceRequest preemptible = mockedYandexTemplate.createVm();
+        assertThat(preemptible.getSchedulingPolicy().getPreemptible(), is(true));
+
+        mockedYandexTemplate.createWithFallback(preemptible).get(10, TimeUnit.SECONDS);
+        assertThat(requests.size(), is(2));
+        assertThat(requests.get(1).getSchedulingPolicy().getPreemptible(), is(false));
+        assertThat(YCPreemption.getStats(mockedYandexTemplate).getFallbacks(), is(1L));
+
+        // without the fallback the failure is reported
+        mockedYandexTemplate.setPreemptibleFallback(false);
+        CompletableFuture<OperationOuterClass.Operation> failed = mockedYandexTemplate.createWithFallback(preemptible);
+        assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+        assertThat(requests.size(), is(3));
+    }
+
+    @Test
+    void createdInstanceIsNotAdoptedBeforeItsNodeIsAddedTest() throws Exception {
+        List<InstanceOuterClass.Instance> listed = new ArrayList<>();
+        List<InstanceServiceOuterClass.CreateInstanceRequest> created = stubCreate(listed);
+        EnumSet<YandexTemplate.ProvisionOptions> options = EnumSet.of(YandexTemplate.ProvisionOptions.ALLOW_CREATE);
+
+        YCAbstractSlave first = mockedYandexTemplate.provision(1, options).get(0).get(10, TimeUnit.SECONDS);
+        // listed while the provisioner has not added its node yet
+        listed.add(InstanceOuterClass.Instance.newBuilder()
+                .setId(first.getInstanceId())
+                .setName(first.getNodeName())
+                .setFolderId("b1gjcigme8df0h9dl965")
+                .setStatus(InstanceOuterClass.Instance.Status.RUNNING)
+                .putLabels(YandexTemplate.TEMPLATE_LABEL, "testVm")
+                .build());
+        YCAbstractSlave second = mockedYandexTemplate.provision(1, options).get(0).get(10, TimeUnit.SECONDS);
+        assertThat(second.getNodeName(), not(first.getNodeName()));
+        assertThat(created.size(), is(2));
+
+        // an instance whose node was added and removed again is an orphan
+        mockedYandexTemplate.releaseReservation(first.getNodeName());
+        YCAbstractSlave adopted = mockedYandexTemplate.provision(1, options).get(0).get(10, TimeUnit.SECONDS);
+        assertThat(adopted.getInstanceId(), is(first.getInstanceId()));
+        assertThat(created.size(), is(2));
+    }
+
+    @Test
+    void inboundAgentTest() throws Exception {
+        mockedYandexTemplate.setInbound(true);
+        InstanceServiceOuterClass.CreateInstanceRequest prototype = mockedYandexTemplate.createVm();
+        String userData = prototype.getMetadataOrThrow("user-data");
+        assertThat(userData, containsString("path: /etc/systemd/system/jenkins-agent.service"));
+        assertThat(userData, containsString("ExecStart=/opt/jenkins-agent/run.sh"));
+        assertThat(userData, containsString("-webSocket -name \"$(md " + YandexTemplate.AGENT_NAME_METADATA + ")\""));
+        assertThat(userData, containsString("[ systemctl, enable, --now, jenkins-agent.service ]"));
+        assertThat(prototype.getMetadataOrThrow(YandexTemplate.JENKINS_URL_METADATA), is(j.jenkins.getRootUrl()));
+        // the secret is added per instance name
+        assertThat(prototype.containsMetadata(YandexTemplate.AGENT_SECRET_METADATA), is(false));
+
+        List<InstanceServiceOuterClass.CreateInstanceRequest> created = stubCreate(new ArrayList<>());
+        YCAbstractSlave agent = mockedYandexTemplate.provision(1, EnumSet.of(YandexTemplate.ProvisionOptions.ALLOW_CREATE))
+                .get(0).get(10, TimeUnit.SECONDS);
+        InstanceServiceOuterClass.CreateInstanceRequest request = created.get(0);
+        assertThat(request.getMetadataOrThrow(YandexTemplate.AGENT_NAME_METADATA), is(agent.getNodeName()));
+        String secret = request.getMetadataOrThrow(YandexTemplate.AGENT_SECRET_METADATA);
+        assertThat(secret, is(JnlpAgentReceiver.SLAVE_SECRET.mac(agent.getNodeName())));
+        assertThat(secret, not(JnlpAgentReceiver.SLAVE_SECRET.mac(agent.getNodeName() + "-other")));
+        assertThat(request.getMetadataOrThrow("user-data"), is(userData));
+
+        // the controller waits for the agent instead of connecting over SSH
+        assertThat(agent.getLauncher(), instanceOf(YCInboundComputerLauncher.class));
+        YCInboundComputerLauncher launcher = (YCInboundComputerLauncher) agent.getLauncher();
+        assertThat(launcher.isWebSocket(), is(true));
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        launcher.launch(Mockito.mock(SlaveComputer.class), new StreamTaskListener(log, StandardCharsets.UTF_8));
+        assertThat(log.toString(StandardCharsets.UTF_8.name()), containsString("Waiting for the agent to connect"));
+    }
+
+    /**
+     * Lets the template create instances, and list them from the given list.
+     *
+     * @return requests of the created instances
+     */
+    private List<InstanceServiceOuterClass.CreateInstanceRequest> stubCreate(List<InstanceOuterClass.Instance> listed) throws Exception {
+        mockedYandexTemplate.parent = mockedCloud;
+        YCInstanceCache cache = Mockito.mock(YCInstanceCache.class);
+        Mockito.doReturn(cache).when(mockedCloud).getInstanceCache();
+        when(cache.getCachedInstances(Mockito.any())).thenReturn(listed);
+        List<InstanceServiceOuterClass.CreateInstanceRequest> created = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            InstanceServiceOuterClass.CreateInstanceRequest request = invocation.getArgument(0);
+            created.add(request);
+            return CompletableFuture.completedFuture(OperationOuterClass.Operation.newBuilder()
+                    .setMetadata(Any.pack(InstanceServiceOuterClass.CreateInstanceMetadata.newBuilder()
+                            .setInstanceId("id-" + request.getName()).build()))
+                    .build());
+        }).when(mockedYandexTemplate).createInstance(Mockito.any());
+        return created;
+    }
+
+    @Test
+    void templatesByLabelTest() {
+        YandexCloud actual = j.jenkins.clouds.get(YandexCloud.class);
+        assertThat(actual.getTemplates(Label.get("testLabels")).size(), is(1));
+        assertThat(actual.getTemplates(Label.get("testLabels")), sameInstance(actual.getTemplates(Label.get("testLabels"))));
+        assertThat(actual.getTemplates(Label.get("otherLabels")).isEmpty(), is(true));
+        assertThat(actual.getTemplates((Label) null).size(), is(1));
+        assertThat(actual.getTemplate("descr"), notNullValue());
+        assertThat(actual.getTemplate("other"), nullValue());
+    }
+
     @Test
     void testSshCredentials() throws Exception {
         YandexCloud actual = j.jenkins.clouds.get(YandexCloud.class);
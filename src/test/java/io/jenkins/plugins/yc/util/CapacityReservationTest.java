@@ -0,0 +1,110 @@
+package io.jenkins.plugins.yc.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class CapacityReservationTest {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    private String nextName() {
+        return "vm-" + counter.incrementAndGet();
+    }
+
+    @Test
+    void concurrentReservationsDontExceedCapacity() throws Exception {
+        CapacityReservation reservation = new CapacityReservation(TimeUnit.MINUTES.toMillis(10));
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Callable<List<String>> task = () -> {
+                    start.await();
+                    return reservation.reserve(Collections.singleton("vm-existing"), 3, 10, this::nextName);
+                };
+                results.add(executor.submit(task));
+            }
+            start.countDown();
+            Set<String> granted = new HashSet<>();
+            int total = 0;
+            for (Future<List<String>> result : results) {
+                List<String> names = result.get(10, TimeUnit.SECONDS);
+                total += names.size();
+                granted.addAll(names);
+            }
+            assertThat(total, is(9));
+            assertThat(granted.size(), is(9));
+            assertThat(reservation.getPending(), is(9));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void listedInstancesAreNotCountedTwice() {
+        CapacityReservation reservation = new CapacityReservation(TimeUnit.MINUTES.toMillis(10));
+        List<String> first = reservation.reserve(Collections.emptySet(), 2, 3, this::nextName);
+        assertThat(first.size(), is(2));
+        // not listed yet, only one more fits
+        assertThat(reservation.reserve(Collections.emptySet(), 2, 3, this::nextName).size(), is(1));
+        // listed now, the listing counts them
+        Set<String> listed = new HashSet<>(first);
+        assertThat(reservation.reserve(listed, 2, 3, this::nextName).size(), is(0));
+        listed.add("vm-other");
+        assertThat(reservation.reserve(listed, 2, 4, this::nextName).size(), is(0));
+        assertThat(reservation.reserve(listed, 2, 5, this::nextName).size(), is(1));
+    }
+
+    @Test
+    void listedNamesStayReservedUntilReleased() {
+        CapacityReservation reservation = new CapacityReservation(TimeUnit.MINUTES.toMillis(10));
+        String name = reservation.reserve(Collections.emptySet(), 1, 0, this::nextName).get(0);
+        reservation.reserve(Collections.singleton(name), 1, 0, this::nextName);
+        // the node of the listed instance is not added yet
+        assertThat(reservation.isReserved(name), is(true));
+        reservation.release(name);
+        assertThat(reservation.isReserved(name), is(false));
+        assertThat(reservation.getPending(), is(1));
+    }
+
+    @Test
+    void failedCreateReleasesCapacity() {
+        CapacityReservation reservation = new CapacityReservation(TimeUnit.MINUTES.toMillis(10));
+        List<String> names = reservation.reserve(Collections.emptySet(), 2, 2, this::nextName);
+        assertThat(reservation.reserve(Collections.emptySet(), 1, 2, this::nextName).size(), is(0));
+        reservation.release(names.get(0));
+        assertThat(reservation.reserve(Collections.emptySet(), 1, 2, this::nextName).size(), is(1));
+    }
+
+    @Test
+    void expiredReservationsDontCount() {
+        CapacityReservation reservation = new CapacityReservation(-1);
+        List<String> names = reservation.reserve(Collections.emptySet(), 2, 2, this::nextName);
+        assertThat(names.size(), is(2));
+        assertThat(reservation.isReserved(names.get(0)), is(false));
+        assertThat(reservation.reserve(Collections.emptySet(), 2, 2, this::nextName).size(), is(2));
+    }
+
+    @Test
+    void unlimitedCapacity() {
+        CapacityReservation reservation = new CapacityReservation(TimeUnit.MINUTES.toMillis(10));
+        assertThat(reservation.reserve(Collections.singleton("vm-existing"), 5, 0, this::nextName).size(), is(5));
+    }
+}
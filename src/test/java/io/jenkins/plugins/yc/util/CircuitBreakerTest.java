@@ -0,0 +1,99 @@
+package io.jenkins.plugins.yc.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 60000, now::get);
+
+    @Test
+    void opensAtFailureRate() {
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertThat(breaker.onSuccess(), is(false));
+        // 2 of 4 calls failed
+        assertThat(breaker.onFailure(), is(true));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.allow(3), is(0));
+        assertThat(breaker.isAvailable(), is(false));
+        assertThat(breaker.getRemainingOpenMs(), is(60000L));
+    }
+
+    @Test
+    void needsMinimumCalls() {
+        assertThat(breaker.onFailure(), is(false));
+        assertThat(breaker.onFailure(), is(false));
+        assertThat(breaker.onFailure(), is(false));
+        assertThat(breaker.allow(3), is(3));
+        assertThat(breaker.onFailure(), is(true));
+    }
+
+    @Test
+    void halfOpenAllowsSingleProbe() {
+        open();
+        now.addAndGet(60000);
+        assertThat(breaker.isAvailable(), is(true));
+        assertThat(breaker.allow(3), is(1));
+        assertThat(breaker.allow(3), is(0));
+        assertThat(breaker.isAvailable(), is(false));
+        assertThat(breaker.onSuccess(), is(true));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.getFailures(), is("0/0"));
+        assertThat(breaker.allow(3), is(3));
+    }
+
+    @Test
+    void probeIsNotTakenWithoutRequests() {
+        open();
+        now.addAndGet(60000);
+        assertThat(breaker.allow(0), is(0));
+        assertThat(breaker.isAvailable(), is(true));
+        assertThat(breaker.allow(1), is(1));
+    }
+
+    @Test
+    void failedProbeOpensAgain() {
+        open();
+        now.addAndGet(60000);
+        assertThat(breaker.allow(1), is(1));
+        assertThat(breaker.onFailure(), is(true));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.allow(1), is(0));
+    }
+
+    @Test
+    void lostProbeIsGivenUp() {
+        open();
+        now.addAndGet(60000);
+        assertThat(breaker.allow(1), is(1));
+        now.addAndGet(60000);
+        assertThat(breaker.allow(1), is(1));
+    }
+
+    @Test
+    void oldOutcomesLeaveTheWindow() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+            breaker.onSuccess();
+            breaker.onSuccess();
+            breaker.onSuccess();
+        }
+        // the window keeps the last 10 outcomes, the first failure left it
+        assertThat(breaker.getFailures(), is("2/10"));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+}
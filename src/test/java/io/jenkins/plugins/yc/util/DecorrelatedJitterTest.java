@@ -0,0 +1,22 @@
+package io.jenkins.plugins.yc.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class DecorrelatedJitterTest {
+
+    @Test
+    void delaysStayBetweenBaseAndThreeTimesThePreviousDelay() {
+        DecorrelatedJitter jitter = new DecorrelatedJitter(200, 10000);
+        long delay = 0;
+        for (int i = 0; i < 100; i++) {
+            long next = jitter.next(delay);
+            assertThat(next, allOf(greaterThanOrEqualTo(200L), lessThanOrEqualTo(Math.min(10000, Math.max(delay, 200) * 3))));
+            delay = next;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.jenkins.plugins.yc.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+class LatencyHistogramTest {
+
+    @Test
+    void quantilesAreBucketBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(15000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(90000);
+        }
+        histogram.record(-1);
+        assertThat(histogram.getCount(), is(100L));
+        assertThat(histogram.getMeanMs(), is(22500L));
+        assertThat(histogram.getQuantileMs(0.5), is(20000L));
+        assertThat(histogram.getQuantileMs(0.95), is(120000L));
+    }
+
+    @Test
+    void emptyAndUnbounded() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getQuantileMs(0.5), is(0L));
+        histogram.record(3_600_000);
+        assertThat(histogram.getQuantileMs(0.5), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    void prometheusBucketsAreCumulative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(400);
+        histogram.record(1500);
+        histogram.record(700000);
+        StringBuilder out = new StringBuilder();
+        histogram.writePrometheus(out, "latency_seconds", "phase=\"running\"");
+        String text = out.toString();
+        assertThat(text, containsString("latency_seconds_bucket{phase=\"running\",le=\"0.500\"} 1\n"));
+        assertThat(text, containsString("latency_seconds_bucket{phase=\"running\",le=\"2.000\"} 2\n"));
+        assertThat(text, containsString("latency_seconds_bucket{phase=\"running\",le=\"600.000\"} 2\n"));
+        assertThat(text, containsString("latency_seconds_bucket{phase=\"running\",le=\"+Inf\"} 3\n"));
+        assertThat(text, containsString("latency_seconds_sum{phase=\"running\"} 701.900\n"));
+        assertThat(text, containsString("latency_seconds_count{phase=\"running\"} 3\n"));
+    }
+}
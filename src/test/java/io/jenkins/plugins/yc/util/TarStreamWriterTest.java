@@ -0,0 +1,81 @@
+package io.jenkins.plugins.yc.util;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TarStreamWriterTest {
+
+    @Test
+    void filesAreReadBack() throws IOException {
+        byte[] script = "#!/bin/sh\necho hello\n".getBytes(StandardCharsets.UTF_8);
+        // exactly one block, no padding
+        byte[] block = new byte[512];
+        Arrays.fill(block, (byte) 7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarStreamWriter tar = new TarStreamWriter(out)) {
+            tar.addFile("init.sh", script, 0700);
+            tar.addFile("empty", new byte[0], 0600);
+            tar.addFile("block.bin", block, 0644);
+        }
+
+        try (TarArchiveInputStream in = new TarArchiveInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEntry(in, "init.sh", 0700, script);
+            assertEntry(in, "empty", 0600, new byte[0]);
+            assertEntry(in, "block.bin", 0644, block);
+            assertThat(in.getNextTarEntry(), nullValue());
+        }
+    }
+
+    @Test
+    void longNamesAreSplitIntoThePrefix() throws IOException {
+        String name = repeat('d', 120) + "/" + repeat('f', 99);
+        byte[] content = "content".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarStreamWriter tar = new TarStreamWriter(out)) {
+            tar.addFile(name, content, 0755);
+        }
+
+        try (TarArchiveInputStream in = new TarArchiveInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEntry(in, name, 0755, content);
+            assertThat(in.getNextTarEntry(), nullValue());
+        }
+    }
+
+    @Test
+    void namesWhichCantBeSplitAreRejected() {
+        TarStreamWriter tar = new TarStreamWriter(new ByteArrayOutputStream());
+        assertThrows(IllegalArgumentException.class, () -> tar.addFile(repeat('f', 101), new byte[0], 0644));
+        assertThrows(IllegalArgumentException.class,
+                () -> tar.addFile(repeat('d', 10) + "/" + repeat('f', 101), new byte[0], 0644));
+        assertThrows(IllegalArgumentException.class,
+                () -> tar.addFile(repeat('d', 156) + "/" + repeat('f', 10), new byte[0], 0644));
+    }
+
+    private static void assertEntry(TarArchiveInputStream in, String name, int mode, byte[] content) throws IOException {
+        TarArchiveEntry entry = in.getNextTarEntry();
+        assertThat(entry.getName(), is(name));
+        assertThat(entry.isFile(), is(true));
+        assertThat(entry.getMode() & 07777, is(mode));
+        assertThat(entry.getSize(), is((long) content.length));
+        assertThat(IOUtils.toByteArray(in), is(content));
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,46 @@
+package io.jenkins.plugins.yc.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class TokenBucketTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void burstThenDelays() {
+        TokenBucket bucket = new TokenBucket(10, 2, now::get);
+        assertThat(bucket.reserve(), is(0L));
+        assertThat(bucket.reserve(), is(0L));
+        // over the burst, permits are reserved in the future
+        assertThat(bucket.reserve(), is(100L));
+        assertThat(bucket.reserve(), is(200L));
+    }
+
+    @Test
+    void refillsUpToBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2, now::get);
+        bucket.reserve();
+        bucket.reserve();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThat(bucket.reserve(), is(0L));
+        assertThat(bucket.reserve(), is(0L));
+        assertThat(bucket.reserve(), is(100L));
+    }
+
+    @Test
+    void waitShrinksAsTheClockAdvances() {
+        TokenBucket bucket = new TokenBucket(10, 1, now::get);
+        bucket.reserve();
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(40));
+        // a permit is refilled every 100ms
+        assertThat(bucket.reserve(), is(60L));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(160));
+        assertThat(bucket.reserve(), is(0L));
+    }
+}